@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark network and workloads for the Scheduler hot paths.
+ *
+ * This class sits in the default package next to the scheduler classes so it can reach
+ * their package-private members. JMH only accepts benchmarks in a named package, and a
+ * named package cannot refer to default-package classes, so bench.SchedulerBenchmarks
+ * calls the static methods here through method handles and passes the state as Object.
+ */
+public class SchedulerBenchmarkState {
+    private static final int VEHICLE_CAPACITY = 50;
+    private static final int DATA_FILE_TIMESTAMPS = 60; // One minute of 1 Hz counts
+
+    private final Scheduler scheduler;
+    private final List<Route> routes;
+    private final StopCounts stopCounts; // Every stop reported, for updateStopCounts
+    private final int vehiclesPerRoute;
+    private final Path dataFile;
+    private final DataReader dataReader;
+    private int nextVehicleId = 1;
+    private int nextRoute = 0; // Round robin for topping the fleet back up
+    private int nextChangedRoute = 0; // Round robin for markAndCheck
+
+    private SchedulerBenchmarkState(int routeCount, int stopsPerRoute, int vehiclesPerRoute, long seed) throws IOException {
+        Random random = new Random(seed);
+        this.vehiclesPerRoute = vehiclesPerRoute;
+        this.dataFile = Files.createTempFile("scheduler-bench", ".txt");
+        this.dataFile.toFile().deleteOnExit();
+        this.scheduler = new Scheduler(dataFile.toString());
+        this.dataReader = new DataReader(dataFile.toString());
+        scheduler.setHeadless(true);
+
+        this.routes = new ArrayList<>();
+        int stopId = 1;
+        for (int r = 0; r < routeCount; r++) {
+            List<Stop> stops = new ArrayList<>();
+            for (int s = 0; s < stopsPerRoute; s++) {
+                Stop stop = new Stop(stopId, "Stop " + stopId);
+                stopId++;
+                // Light demand, so deployment checks look at the whole fleet instead of stopping early
+                stop.updatePeopleCount(random.nextInt(3));
+                stops.add(stop);
+            }
+            Route route = new Route("R" + r, "Route " + r, stops);
+            routes.add(route);
+            scheduler.addRoute(route);
+
+            // Spread vehicles evenly along the route, in mixed states
+            for (int v = 0; v < vehiclesPerRoute; v++) {
+                int position = (int) ((long) v * (stopsPerRoute - 1) / Math.max(1, vehiclesPerRoute));
+                scheduler.addVehicle(newVehicle(route, position, random.nextInt(3), random.nextInt(VEHICLE_CAPACITY / 2)));
+            }
+        }
+
+        // Laid out by the scheduler's stop ordinals, like the counts it builds from data
+        this.stopCounts = new StopCounts(scheduler.getStopRegistry().getOrdinals());
+        for (Route route : routes) {
+            for (Stop stop : route.getStops()) {
+                stopCounts.put(stop.getId(), stop.getPeopleCount());
+            }
+        }
+
+        writeDataFile(random);
+    }
+
+    private Vehicle newVehicle(Route route, int position, int stage, int passengers) {
+        Vehicle vehicle;
+        if (stage == 0 && position > 0) {
+            // ARRIVING: start at the previous stop and move on
+            vehicle = new Vehicle("B" + nextVehicleId++, route, VEHICLE_CAPACITY, route.getStop(position - 1));
+            vehicle.moveToNextStop();
+        } else {
+            vehicle = new Vehicle("B" + nextVehicleId++, route, VEHICLE_CAPACITY, route.getStop(position));
+            if (stage == 2) {
+                vehicle.markAsDeparting();
+            }
+        }
+        vehicle.pickUpPassengers(passengers);
+        return vehicle;
+    }
+
+    private void writeDataFile(Random random) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataFile.toFile()))) {
+            writer.write("# Benchmark data: stop id, crowdCount, timestamp, state\n");
+            for (int t = 0; t < DATA_FILE_TIMESTAMPS; t++) {
+                String timestamp = DataReader.formatTime(8 * 3600 + t);
+                for (Route route : routes) {
+                    for (Stop stop : route.getStops()) {
+                        writer.write(stop.getId() + ", " + random.nextInt(40) + ", " + timestamp + ", moderate\n");
+                    }
+                }
+            }
+        }
+    }
+
+    public static Object create(int routes, int stopsPerRoute, int vehiclesPerRoute, long seed) throws IOException {
+        return new SchedulerBenchmarkState(routes, stopsPerRoute, vehiclesPerRoute, seed);
+    }
+
+    /**
+     * One cycle's prediction work: a fresh Prediction, asked for every vehicle's
+     * fullness at every future stop.
+     */
+    public static int predictFullness(Object state) {
+        SchedulerBenchmarkState s = (SchedulerBenchmarkState) state;
+        List<Vehicle> vehicles = s.scheduler.getVehicles();
+        Prediction prediction = new Prediction(vehicles);
+        int sum = 0;
+        for (Vehicle vehicle : vehicles) {
+            for (Stop futureStop : prediction.getFutureStops(vehicle)) {
+                sum += prediction.predictFullnessAtStop(vehicle, futureStop);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Mark routes as changed, as a cycle's count updates and vehicle moves do, then run the
+     * deployment check, which predicts only those routes again (unchanged routes cost it
+     * nothing). Routes are taken round robin. Marking a route is O(1), so the check
+     * dominates the time measured.
+     */
+    public static boolean markAndCheck(Object state, int changedRoutes) {
+        SchedulerBenchmarkState s = (SchedulerBenchmarkState) state;
+        for (int i = 0; i < changedRoutes; i++) {
+            s.scheduler.headroomQueue.routeChanged(s.routes.get(s.nextChangedRoute));
+            s.nextChangedRoute = (s.nextChangedRoute + 1) % s.routes.size();
+        }
+        return s.scheduler.checkIfDeploymentNeeded();
+    }
+
+    /**
+     * One updateStopCounts call, advancing the 3-stage cycle like processDataCycle does.
+     * Vehicles that complete their route are replaced at the start of a route, so the fleet
+     * size stays constant across invocations.
+     */
+    public static int updateStopCounts(Object state) {
+        SchedulerBenchmarkState s = (SchedulerBenchmarkState) state;
+        s.scheduler.updateStopCounts(s.stopCounts);
+        s.scheduler.cycleCount++;
+
+        int target = s.routes.size() * s.vehiclesPerRoute;
+        while (s.scheduler.getVehicles().size() < target) {
+            Route route = s.routes.get(s.nextRoute);
+            s.nextRoute = (s.nextRoute + 1) % s.routes.size();
+            s.scheduler.addVehicle(s.newVehicle(route, 0, 1, 0));
+        }
+        return s.scheduler.getVehicles().size();
+    }
+
+    public static int readData(Object state) {
+        return ((SchedulerBenchmarkState) state).dataReader.readData().size();
+    }
+}
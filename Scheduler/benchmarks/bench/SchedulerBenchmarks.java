@@ -0,0 +1,124 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for the Scheduler hot paths, parameterised by network and fleet size.
+ *
+ * The scheduler classes live in the default package, which a named package cannot import,
+ * so the workloads are in SchedulerBenchmarkState and are called through method handles.
+ * Static final handles are constants to the JIT, so the indirection costs next to nothing.
+ *
+ * Run with: java -jar target/benchmarks.jar [JMH options]
+ * The GC profiler is always on, so allocation per operation is reported too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmarks {
+    private static final MethodHandle CREATE;
+    private static final MethodHandle PREDICT_FULLNESS;
+    private static final MethodHandle MARK_AND_CHECK;
+    private static final MethodHandle UPDATE_STOP_COUNTS;
+    private static final MethodHandle READ_DATA;
+
+    static {
+        try {
+            Class<?> harness = Class.forName("SchedulerBenchmarkState");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            CREATE = lookup.findStatic(harness, "create",
+                MethodType.methodType(Object.class, int.class, int.class, int.class, long.class));
+            PREDICT_FULLNESS = lookup.findStatic(harness, "predictFullness", MethodType.methodType(int.class, Object.class));
+            MARK_AND_CHECK = lookup.findStatic(harness, "markAndCheck",
+                MethodType.methodType(boolean.class, Object.class, int.class));
+            UPDATE_STOP_COUNTS = lookup.findStatic(harness, "updateStopCounts", MethodType.methodType(int.class, Object.class));
+            READ_DATA = lookup.findStatic(harness, "readData", MethodType.methodType(int.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Network {
+        @Param({"1", "10"})
+        public int routes;
+
+        @Param({"20", "100"})
+        public int stopsPerRoute;
+
+        @Param({"5", "50"})
+        public int vehiclesPerRoute;
+
+        Object state;
+
+        // Rebuilt per iteration, since updateStopCounts moves the fleet along
+        @Setup(Level.Iteration)
+        public void setUp() throws Throwable {
+            state = CREATE.invokeExact(routes, stopsPerRoute, vehiclesPerRoute, 42L);
+        }
+    }
+
+    @Benchmark
+    public int predictFullness(Network network) throws Throwable {
+        return (int) PREDICT_FULLNESS.invokeExact(network.state);
+    }
+
+    /**
+     * The deployment check only predicts routes that changed since the last check, so each
+     * operation marks routes as changed and then checks: one route, as in a quiet cycle...
+     * (marking is done in the operation: a per-invocation setup would cost more than the check)
+     */
+    @Benchmark
+    public boolean checkDeploymentOneRouteChanged(Network network) throws Throwable {
+        return (boolean) MARK_AND_CHECK.invokeExact(network.state, 1);
+    }
+
+    /**
+     * ...or every route, as in a cycle where counts change everywhere.
+     */
+    @Benchmark
+    public boolean checkDeploymentAllRoutesChanged(Network network) throws Throwable {
+        return (boolean) MARK_AND_CHECK.invokeExact(network.state, network.routes);
+    }
+
+    @Benchmark
+    public int updateStopCounts(Network network) throws Throwable {
+        return (int) UPDATE_STOP_COUNTS.invokeExact(network.state);
+    }
+
+    @Benchmark
+    public int readData(Network network) throws Throwable {
+        return (int) READ_DATA.invokeExact(network.state);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
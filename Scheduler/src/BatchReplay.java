@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch replay for tuning thresholds: replays archived data files through the sample network
+ * once for every combination of data file, deployment threshold and removal threshold,
+ * many replays at a time, and prints only each replay's summary.
+ *
+ * Every replay has its own headless Scheduler (its own network, vehicles and metrics) and
+ * runs on a single thread, so replays share nothing and give the same results as running
+ * them one after another.
+ *
+ * Usage: java BatchReplay [options] <data file>...
+ *   --threads <n>                      replays run at once (default: available processors)
+ *   --deployment-thresholds <a,b,...>  route deployment thresholds to try (default 1.2)
+ *   --removal-thresholds <a,b,...>     removal thresholds to try (default 0.2)
+ */
+public class BatchReplay {
+    private final String dataFile;
+    private final double deploymentThreshold;
+    private final double removalThreshold;
+
+    private BatchReplay(String dataFile, double deploymentThreshold, double removalThreshold) {
+        this.dataFile = dataFile;
+        this.deploymentThreshold = deploymentThreshold;
+        this.removalThreshold = removalThreshold;
+    }
+
+    /**
+     * Replay the whole file as fast as it can be read and return the summary row.
+     */
+    private String run() {
+        Scheduler scheduler = new Scheduler(dataFile);
+        scheduler.setHeadless(true);
+        scheduler.setRemovalThreshold(removalThreshold);
+        Scheduler.addSampleNetwork(scheduler, deploymentThreshold);
+        long start = System.nanoTime();
+        scheduler.startScheduling();
+        long elapsed = System.nanoTime() - start;
+
+        SchedulerMetrics metrics = scheduler.getMetrics();
+        return String.format("%-24s %7.2f %7.2f %8d %11d %8d %8d %8d %8.0f%% %9.1f",
+            dataFile, deploymentThreshold, removalThreshold, metrics.getProcessedCycles(),
+            metrics.getDeployments(), metrics.getRemovals(), metrics.getBlockedRemovals(),
+            metrics.getThresholdBreaches(), metrics.getPeakPredictedFullness() * 100, elapsed / 1e6);
+    }
+
+    private static double[] parseList(String values) {
+        String[] parts = values.split(",");
+        double[] parsed = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Double.parseDouble(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double[] deploymentThresholds = {Route.DEFAULT_DEPLOYMENT_THRESHOLD};
+        double[] removalThresholds = {Scheduler.DEFAULT_REMOVAL_THRESHOLD};
+        List<String> dataFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--deployment-thresholds":
+                    deploymentThresholds = parseList(args[++i]);
+                    break;
+                case "--removal-thresholds":
+                    removalThresholds = parseList(args[++i]);
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Unknown option: " + args[i]);
+                        return;
+                    }
+                    dataFiles.add(args[i]);
+            }
+        }
+        if (dataFiles.isEmpty()) {
+            System.err.println("Usage: java BatchReplay [--threads n] [--deployment-thresholds a,b,...] "
+                + "[--removal-thresholds a,b,...] <data file>...");
+            return;
+        }
+
+        // One replay per file and parameter set, printed in that order whatever order they finish in
+        List<BatchReplay> replays = new ArrayList<>();
+        for (String dataFile : dataFiles) {
+            for (double deploymentThreshold : deploymentThresholds) {
+                for (double removalThreshold : removalThresholds) {
+                    replays.add(new BatchReplay(dataFile, deploymentThreshold, removalThreshold));
+                }
+            }
+        }
+        int poolSize = Math.max(1, Math.min(threads, replays.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        long start = System.nanoTime();
+        List<Future<String>> results = new ArrayList<>();
+        for (BatchReplay replay : replays) {
+            results.add(executor.submit(replay::run));
+        }
+
+        System.out.printf("%-24s %7s %7s %8s %11s %8s %8s %8s %9s %9s%n", "file", "deploy", "remove", "cycles",
+            "deployments", "removals", "blocked", "breaches", "peak full", "ms");
+        for (int i = 0; i < replays.size(); i++) {
+            try {
+                System.out.println(results.get(i).get());
+            } catch (ExecutionException e) {
+                System.err.println("Error replaying " + replays.get(i).dataFile + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.shutdown();
+        System.out.printf("%d replays in %.1f ms on %d thread(s)%n", replays.size(), (System.nanoTime() - start) / 1e6,
+            poolSize);
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Last-writer-wins buffer of crowd counts between cycles.
+ *
+ * Each known stop has one atomic slot holding its latest count and timestamp, so any
+ * number of updates to a stop between two cycles collapse into one. The first update to a
+ * stop after a drain also puts the stop on a changed-stop queue, so draining costs
+ * O(stops changed) rather than O(updates received).
+ *
+ * Lock-free: put() never blocks and may be called from any number of threads; drain()
+ * must only be called from one consumer thread at a time. Only stops known when the buffer
+ * is created can be buffered.
+ */
+public class CoalescingBuffer {
+    private final StopOrdinals ordinals; // Read-only after construction
+    private final AtomicLongArray latest; // Per stop ordinal: timestamp << 32 | count
+    private final AtomicIntegerArray queued; // Per stop ordinal: 1 while on the changed queue
+    private final AtomicIntegerArray changed; // Changed-stop ring: ordinal + 1 per slot, 0 = empty
+    private final int mask;
+    private final AtomicInteger changedTail = new AtomicInteger(); // Next ring index to claim (producers)
+    private int changedHead; // Next ring index to drain (consumer only)
+    private final AtomicLong latestTime = new AtomicLong(-1); // Newest time put so far, counted on from the first midnight
+    private final AtomicInteger droppedUpdates = new AtomicInteger(); // Updates for unknown stops
+
+    /**
+     * Create a buffer for the given stop ids.
+     */
+    public CoalescingBuffer(int[] stopIds) {
+        this.ordinals = new StopOrdinals();
+        for (int stopId : stopIds) {
+            ordinals.register(stopId);
+        }
+        int stops = Math.max(1, ordinals.size());
+        this.latest = new AtomicLongArray(stops);
+        this.queued = new AtomicIntegerArray(stops);
+        // Each stop is on the ring at most once, so a ring as large as the stop count never overflows
+        int ringSize = Integer.highestOneBit(Math.max(2, stops - 1)) << 1;
+        this.changed = new AtomicIntegerArray(ringSize);
+        this.mask = ringSize - 1;
+    }
+
+    /**
+     * Record a stop's latest count. Returns false (and drops the update) for unknown stops.
+     */
+    public boolean put(int stopId, int crowdCount, int secondsOfDay) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        if (ordinal < 0) {
+            droppedUpdates.incrementAndGet();
+            return false;
+        }
+        latest.set(ordinal, ((long) secondsOfDay << 32) | (crowdCount & 0xFFFFFFFFL));
+        latestTime.accumulateAndGet(secondsOfDay, CoalescingBuffer::later);
+
+        // First update since the stop was last drained: queue it
+        if (queued.get(ordinal) == 0 && queued.compareAndSet(ordinal, 0, 1)) {
+            int index = changedTail.getAndIncrement();
+            changed.lazySet(index & mask, ordinal + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Hand the latest count of every stop changed since the last drain to the consumer.
+     * Returns the number of stops drained.
+     */
+    public int drain(RecordQueue.RecordConsumer consumer) {
+        int tail = changedTail.get();
+        int drained = 0;
+        for (int index = changedHead; index != tail; index++) {
+            int slot = index & mask;
+            int entry;
+            // A producer may have claimed the slot but not written it yet
+            while ((entry = changed.get(slot)) == 0) {
+                Thread.onSpinWait();
+            }
+            changed.set(slot, 0);
+            int ordinal = entry - 1;
+
+            // Unmark before reading, so an update racing with this drain is queued again
+            queued.set(ordinal, 0);
+            long value = latest.get(ordinal);
+            consumer.accept(ordinals.stopIdOf(ordinal), (int) value, (int) (value >>> 32));
+            drained++;
+        }
+        changedHead = tail;
+        return drained;
+    }
+
+    public boolean hasChanges() {
+        return changedTail.get() != changedHead;
+    }
+
+    /**
+     * Newest timestamp (seconds of day) seen by put(), or -1 if nothing has been put yet.
+     * A timestamp shortly after midnight is newer than one shortly before it.
+     */
+    public int getLatestTimestamp() {
+        long time = latestTime.get();
+        return time < 0 ? -1 : (int) (time % DataReader.SECONDS_PER_DAY);
+    }
+
+    /**
+     * The later of the newest time so far and a put timestamp, taken on the day within
+     * half a day of it (see DataReader.timeAfter).
+     */
+    private static long later(long latest, long secondsOfDay) {
+        if (latest < 0) {
+            return secondsOfDay;
+        }
+        return Math.max(latest, DataReader.timeAfter(latest, (int) secondsOfDay));
+    }
+
+    public int getDroppedUpdates() {
+        return droppedUpdates.get();
+    }
+}
@@ -1,10 +1,20 @@
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 public class DataReader {
+    static final int SECONDS_PER_DAY = 24 * 3600;
+    static final int HALF_DAY_SECONDS = 12 * 3600;
+
     private String filePath;
 
     public DataReader(String filePath) {
@@ -45,6 +55,484 @@ public class DataReader {
         return data;
     }
 
+    /**
+     * Open a streaming cursor over the data file.
+     * The file is memory-mapped when it fits in a single mapping, otherwise it is read
+     * through its channel in fixed-size chunks. Either way only one reusable record is
+     * ever held, so the file never has to fit on the heap.
+     */
+    public RecordCursor openCursor() throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        if (channel.size() <= Integer.MAX_VALUE) {
+            try {
+                return new RecordCursor(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                // The mapping stays valid after the channel is closed
+                channel.close();
+            }
+        }
+        return new RecordCursor(channel);
+    }
+
+    /**
+     * Open one cursor over many data files (e.g. one per camera), each sorted by timestamp,
+     * that reads them all at once and merges their records into timestamp order.
+     */
+    public static MergedCursor openMerged(List<String> filePaths) throws IOException {
+        RecordCursor[] cursors = new RecordCursor[filePaths.size()];
+        try {
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = new DataReader(filePaths.get(i)).openCursor();
+            }
+            return new MergedCursor(filePaths, cursors);
+        } catch (IOException e) {
+            for (RecordCursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Format seconds-of-day as HH:MM:SS.
+     */
+    public static String formatTime(int secondsOfDay) {
+        int hours = secondsOfDay / 3600;
+        int minutes = (secondsOfDay / 60) % 60;
+        int seconds = secondsOfDay % 60;
+        return (hours < 10 ? "0" : "") + hours + (minutes < 10 ? ":0" : ":") + minutes +
+               (seconds < 10 ? ":0" : ":") + seconds;
+    }
+
+    /**
+     * Reusable record filled in place by a RecordCursor.
+     * Only holds primitives; the state column is not decoded since scheduling does not use it.
+     */
+    public static class CountRecord {
+        private int stopId;
+        private int crowdCount;
+        private int secondsOfDay; // Timestamp as seconds since midnight
+
+        public int getStopId() {
+            return stopId;
+        }
+
+        public int getCrowdCount() {
+            return crowdCount;
+        }
+
+        public int getSecondsOfDay() {
+            return secondsOfDay;
+        }
+    }
+
+    /**
+     * Streaming parser over crowd count data in the text format
+     * (stop id, crowdCount, HH:MM:SS, state), decoding straight from bytes.
+     * Each call to next() overwrites the same CountRecord.
+     */
+    public static class RecordCursor implements Closeable {
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        private final ReadableByteChannel channel; // Null when parsing a fixed buffer
+        private final ByteBuffer buffer;
+        private final CountRecord record = new CountRecord();
+        private boolean endOfInput;
+
+        // Scratch state for parsing one field at a time
+        private int fieldPosition;
+        private int fieldValue;
+
+        /**
+         * Parse a buffer that already holds the whole input, e.g. a memory-mapped file.
+         */
+        public RecordCursor(ByteBuffer buffer) {
+            this.channel = null;
+            this.buffer = buffer;
+            this.endOfInput = true;
+        }
+
+        /**
+         * Parse input read from a channel in fixed-size chunks.
+         */
+        public RecordCursor(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            this.buffer.flip(); // Start empty
+            this.endOfInput = false;
+        }
+
+        public CountRecord getRecord() {
+            return record;
+        }
+
+        /**
+         * Advance to the next valid record. Blank lines and comments are skipped and
+         * invalid lines are reported and skipped, as in readData().
+         * Returns false at the end of the input.
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                int lineStart = buffer.position();
+                int lineEnd = indexOfNewline(lineStart);
+                if (lineEnd < 0) {
+                    if (!endOfInput) {
+                        fill();
+                        continue;
+                    }
+                    if (lineStart == buffer.limit()) {
+                        return false;
+                    }
+                    lineEnd = buffer.limit(); // Last line without a trailing newline
+                }
+                buffer.position(Math.min(lineEnd + 1, buffer.limit()));
+                if (parseLine(lineStart, lineEnd)) {
+                    return true;
+                }
+            }
+        }
+
+        private int indexOfNewline(int from) {
+            for (int i = from; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Keep the unconsumed partial line and read more bytes after it.
+         */
+        private void fill() throws IOException {
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // A single line longer than the whole buffer: drop it
+                System.err.println("Invalid line format (line longer than " + CHUNK_SIZE + " bytes)");
+                buffer.clear();
+            }
+            if (channel.read(buffer) < 0) {
+                endOfInput = true;
+            }
+            buffer.flip();
+        }
+
+        /**
+         * Parse one line into the record. Returns false for blank, comment and invalid lines.
+         */
+        private boolean parseLine(int start, int end) {
+            start = skipSpaces(start, end);
+            while (end > start && isSpace(buffer.get(end - 1))) {
+                end--;
+            }
+            if (start == end || buffer.get(start) == '#') {
+                return false;
+            }
+
+            // Format: stop id, crowdCount, timestamp, state
+            fieldPosition = start;
+            if (parseInt(end) && expectComma(end)) {
+                record.stopId = fieldValue;
+                if (parseInt(end) && expectComma(end)) {
+                    record.crowdCount = fieldValue;
+                    if (parseTime(end) && expectComma(end)) {
+                        record.secondsOfDay = fieldValue;
+                        // State column: anything up to the end of the line (no further commas)
+                        for (int i = fieldPosition; i < end; i++) {
+                            if (buffer.get(i) == ',') {
+                                return invalid(start, end, "Invalid line format (expected 4 comma-separated values): ");
+                            }
+                        }
+                        return true;
+                    }
+                }
+            }
+            if (countCommas(start, end) != 3) {
+                return invalid(start, end, "Invalid line format (expected 4 comma-separated values): ");
+            }
+            return invalid(start, end, "Invalid data format in line: ");
+        }
+
+        private boolean parseInt(int end) {
+            int i = skipSpaces(fieldPosition, end);
+            boolean negative = i < end && buffer.get(i) == '-';
+            if (negative) {
+                i++;
+            }
+            int digitsStart = i;
+            long value = 0;
+            while (i < end && isDigit(buffer.get(i))) {
+                value = value * 10 + (buffer.get(i) - '0');
+                if (value > Integer.MAX_VALUE) {
+                    return false;
+                }
+                i++;
+            }
+            if (i == digitsStart) {
+                return false;
+            }
+            fieldValue = (int) (negative ? -value : value);
+            fieldPosition = skipSpaces(i, end);
+            return true;
+        }
+
+        /**
+         * Parse H:MM or H:MM:SS into seconds of day.
+         */
+        private boolean parseTime(int end) {
+            int i = skipSpaces(fieldPosition, end);
+            int seconds = 0;
+            int parts = 0;
+            while (parts < 3) {
+                int digitsStart = i;
+                int value = 0;
+                while (i < end && isDigit(buffer.get(i)) && i - digitsStart < 2) {
+                    value = value * 10 + (buffer.get(i) - '0');
+                    i++;
+                }
+                if (i == digitsStart) {
+                    return false;
+                }
+                seconds = seconds * 60 + value;
+                parts++;
+                if (i < end && buffer.get(i) == ':') {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            if (parts < 2) {
+                return false;
+            }
+            fieldValue = parts == 2 ? seconds * 60 : seconds;
+            fieldPosition = skipSpaces(i, end);
+            return true;
+        }
+
+        private boolean expectComma(int end) {
+            if (fieldPosition < end && buffer.get(fieldPosition) == ',') {
+                fieldPosition++;
+                return true;
+            }
+            return false;
+        }
+
+        private int countCommas(int start, int end) {
+            int commas = 0;
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) == ',') {
+                    commas++;
+                }
+            }
+            return commas;
+        }
+
+        private boolean invalid(int start, int end, String message) {
+            byte[] line = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                line[i - start] = buffer.get(i);
+            }
+            System.err.println(message + new String(line, StandardCharsets.UTF_8));
+            return false;
+        }
+
+        private int skipSpaces(int i, int end) {
+            while (i < end && isSpace(buffer.get(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Time (seconds counted on from a first midnight) of a timestamp that follows one at
+     * previousTime: on the day that puts it within half a day of previousTime, so
+     * 23:59:59 then 00:00:00 moves to the next day.
+     */
+    static long timeAfter(long previousTime, int secondsOfDay) {
+        long day = previousTime / SECONDS_PER_DAY;
+        long step = secondsOfDay - previousTime % SECONDS_PER_DAY;
+        if (step < -HALF_DAY_SECONDS) {
+            day++;
+        } else if (step > HALF_DAY_SECONDS) {
+            day--;
+        }
+        return day * SECONDS_PER_DAY + secondsOfDay;
+    }
+
+    /**
+     * K-way merge of several RecordCursors, each over a file sorted by timestamp, read one
+     * cycle (timestamp) at a time. The cursors waiting to be read are kept in a binary
+     * min-heap by (time, file order), so each record costs O(log files) and only one
+     * pending record per file is ever held: nothing is collected or sorted in memory.
+     *
+     * Records with the same timestamp come in file order, and in their order within a file.
+     * A record earlier than the one before it in its own file cannot be merged in order;
+     * it is reported and skipped, like an invalid line.
+     *
+     * Timestamps are seconds of day, so files running past midnight are merged by time
+     * counted on from a midnight before they start, each timestamp on whichever day puts
+     * it nearest the one before it in its file (so 23:59:59 then 00:00:00 moves to the next
+     * day, and 00:00:00 then 23:59:58 is a record out of order). Each file's first record is
+     * placed the same way, nearest the first file's, so a file starting at 00:05 comes after
+     * one starting at 23:50. Files must start within 12 hours of each other, and none may go
+     * 12 hours without a record.
+     */
+    public static class MergedCursor implements Closeable {
+        private final List<String> filePaths;
+        private final RecordCursor[] cursors;
+        private final long[] times; // Per cursor: time of its pending record, in seconds from a midnight before the first
+        private final int[] heap; // Cursors with a pending record
+        private int size = 0;
+        private final CountRecord record = new CountRecord();
+        private long cycleTime = -1; // Time of the current cycle, -1 before the first
+
+        MergedCursor(List<String> filePaths, RecordCursor[] cursors) throws IOException {
+            this.filePaths = filePaths;
+            this.cursors = cursors;
+            this.times = new long[cursors.length];
+            this.heap = new int[cursors.length];
+            long anchor = -1; // The first file's first record, on day 1 so files starting the day before stay positive
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i].next()) {
+                    int timestamp = cursors[i].getRecord().getSecondsOfDay();
+                    if (anchor < 0) {
+                        anchor = SECONDS_PER_DAY + timestamp;
+                    }
+                    times[i] = timeAfter(anchor, timestamp);
+                    heap[size] = i;
+                    siftUp(size++);
+                }
+            }
+        }
+
+        public CountRecord getRecord() {
+            return record;
+        }
+
+        /**
+         * Timestamp (seconds of day) of the cycle being read.
+         */
+        public int getCycleTimestamp() {
+            return cycleTime < 0 ? -1 : (int) (cycleTime % SECONDS_PER_DAY);
+        }
+
+        /**
+         * Move to the next cycle, skipping what is left of the current one.
+         * Returns false once every file has been read.
+         */
+        public boolean nextCycle() throws IOException {
+            while (next()) {
+                // Skip the rest of the current cycle
+            }
+            if (size == 0) {
+                return false;
+            }
+            cycleTime = times[heap[0]];
+            return true;
+        }
+
+        /**
+         * Advance to the current cycle's next record, from whichever file holds it.
+         * Returns false at the end of the cycle.
+         */
+        public boolean next() throws IOException {
+            if (size == 0 || cycleTime < 0 || times[heap[0]] != cycleTime) {
+                return false;
+            }
+            int cursor = heap[0];
+            CountRecord pending = cursors[cursor].getRecord();
+            record.stopId = pending.stopId;
+            record.crowdCount = pending.crowdCount;
+            record.secondsOfDay = pending.secondsOfDay;
+            advance(cursor);
+            return true;
+        }
+
+        /**
+         * Read the next in-order record of the cursor at the top of the heap, or drop the
+         * cursor if its file is done.
+         */
+        private void advance(int cursor) throws IOException {
+            while (cursors[cursor].next()) {
+                int timestamp = cursors[cursor].getRecord().getSecondsOfDay();
+                long time = timeAfter(times[cursor], timestamp);
+                if (time >= times[cursor]) {
+                    times[cursor] = time;
+                    siftDown(0);
+                    return;
+                }
+                System.err.println("Out-of-order record skipped in " + filePaths.get(cursor) + ": stop " +
+                                   cursors[cursor].getRecord().getStopId() + " at " + formatTime(timestamp));
+            }
+            cursors[cursor].close();
+            heap[0] = heap[--size];
+            siftDown(0);
+        }
+
+        private boolean before(int a, int b) {
+            return times[a] < times[b] || (times[a] == times[b] && a < b);
+        }
+
+        private void siftUp(int slot) {
+            int cursor = heap[slot];
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (!before(cursor, heap[parent])) {
+                    break;
+                }
+                heap[slot] = heap[parent];
+                slot = parent;
+            }
+            heap[slot] = cursor;
+        }
+
+        private void siftDown(int slot) {
+            if (size == 0) {
+                return;
+            }
+            int cursor = heap[slot];
+            int half = size >>> 1;
+            while (slot < half) {
+                int child = 2 * slot + 1;
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!before(heap[child], cursor)) {
+                    break;
+                }
+                heap[slot] = heap[child];
+                slot = child;
+            }
+            heap[slot] = cursor;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int i = 0; i < size; i++) {
+                cursors[heap[i]].close(); // Files already read closed their cursors
+            }
+            size = 0;
+        }
+    }
+
     // Inner class for data entries - will be replaced with database in future
     public static class DataEntry {
         private int stopId;
@@ -0,0 +1,97 @@
+/**
+ * A scheduling decision, as a compact structured event.
+ * Instances are preallocated slots in a DecisionLog ring and are overwritten in place.
+ */
+public class DecisionEvent {
+    public enum Type {
+        DEPLOY,         // New vehicle scheduled for deployment
+        REMOVE,         // Scheduled vehicle removed from the deployment schedule
+        REMOVE_BLOCKED, // Removal requested but no scheduled vehicle was available
+        RETIRE          // Vehicle completed its route and left the active fleet
+    }
+
+    private Type type;
+    private int secondsOfDay; // Cycle timestamp, -1 if unknown
+    private String vehicleId; // May be null (REMOVE_BLOCKED)
+    private String routeId;
+
+    void set(Type type, int secondsOfDay, String vehicleId, String routeId) {
+        this.type = type;
+        this.secondsOfDay = secondsOfDay;
+        this.vehicleId = vehicleId;
+        this.routeId = routeId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getSecondsOfDay() {
+        return secondsOfDay;
+    }
+
+    public String getVehicleId() {
+        return vehicleId;
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    /**
+     * Append the event as one line of JSON (no line terminator).
+     */
+    public void appendTo(StringBuilder out) {
+        out.append("{\"t\":");
+        if (secondsOfDay >= 0) {
+            out.append('"').append(DataReader.formatTime(secondsOfDay)).append('"');
+        } else {
+            out.append("null");
+        }
+        out.append(",\"event\":\"").append(type.name()).append('"');
+        if (vehicleId != null) {
+            out.append(",\"vehicle\":");
+            appendJsonString(out, vehicleId);
+        }
+        if (routeId != null) {
+            out.append(",\"route\":");
+            appendJsonString(out, routeId);
+        }
+        out.append('}');
+    }
+
+    /**
+     * Append a quoted JSON string, escaping quotes, backslashes and control characters
+     * (ids come from configuration and must not break the line).
+     */
+    static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
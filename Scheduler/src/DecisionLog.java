@@ -0,0 +1,109 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log of scheduling decisions.
+ *
+ * The scheduler thread fills preallocated event slots in a ring buffer and never waits
+ * on I/O; a background writer thread formats the events and writes them to the sinks.
+ * If the writer falls so far behind that the ring is full, new events are dropped and
+ * counted rather than stalling a cycle.
+ */
+public class DecisionLog implements Closeable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final DecisionEvent[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // Next event to write (writer thread)
+    private final AtomicLong tail = new AtomicLong(); // Next slot to fill (scheduler thread)
+    private final List<DecisionSink> sinks;
+    private final Thread writerThread;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean running;
+
+    public DecisionLog(int capacity, List<DecisionSink> sinks) {
+        int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new DecisionEvent[slots];
+        for (int i = 0; i < slots; i++) {
+            ring[i] = new DecisionEvent();
+        }
+        this.mask = slots - 1;
+        this.sinks = new ArrayList<>(sinks);
+        this.running = true;
+        this.writerThread = new Thread(this::runWriter, "decision-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue a decision event. Must only be called from one thread (the scheduler thread).
+     */
+    public void log(DecisionEvent.Type type, int secondsOfDay, String vehicleId, String routeId) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        ring[(int) (t & mask)].set(type, secondsOfDay, vehicleId, routeId);
+        tail.lazySet(t + 1);
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    private void runWriter() {
+        while (true) {
+            boolean stopping = !running; // Read before draining, so nothing logged before close() is missed
+            long h = head.get();
+            long t = tail.get();
+            if (h == t) {
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            for (long i = h; i < t; i++) {
+                DecisionEvent event = ring[(int) (i & mask)];
+                for (DecisionSink sink : sinks) {
+                    try {
+                        sink.write(event);
+                    } catch (IOException e) {
+                        System.err.println("Error writing decision event: " + e.getMessage());
+                    }
+                }
+            }
+            head.lazySet(t);
+            for (DecisionSink sink : sinks) {
+                try {
+                    sink.flush();
+                } catch (IOException e) {
+                    System.err.println("Error writing decision event: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write out all queued events, then close the sinks.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DecisionSink sink : sinks) {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Destination for decision events written by a DecisionLog's writer thread.
+ */
+public interface DecisionSink {
+    void write(DecisionEvent event) throws IOException;
+
+    /**
+     * Called when the log has no more events queued for now.
+     */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+
+    /**
+     * Events as JSON lines on standard output.
+     */
+    static DecisionSink console() {
+        return new WriterSink(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * Events as JSON lines appended to a file.
+     */
+    static DecisionSink file(String path) throws IOException {
+        return new WriterSink(new FileWriter(path, StandardCharsets.UTF_8, true), true);
+    }
+
+    /**
+     * Events as JSON lines sent over a TCP connection.
+     */
+    static DecisionSink socket(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        return new WriterSink(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * Parse a sink target: "console", "tcp:host:port", or a file path.
+     */
+    static DecisionSink forTarget(String target) throws IOException {
+        if (target.equals("console")) {
+            return console();
+        }
+        if (target.startsWith("tcp:")) {
+            int portSeparator = target.lastIndexOf(':');
+            return socket(target.substring(4, portSeparator), Integer.parseInt(target.substring(portSeparator + 1)));
+        }
+        return file(target);
+    }
+
+    /**
+     * Sink writing one JSON line per event to a character stream.
+     */
+    class WriterSink implements DecisionSink {
+        private final Writer writer;
+        private final boolean closeWriter; // False for standard output
+        private final StringBuilder line = new StringBuilder(128);
+
+        WriterSink(Writer writer, boolean closeWriter) {
+            this.writer = new BufferedWriter(writer);
+            this.closeWriter = closeWriter;
+        }
+
+        @Override
+        public void write(DecisionEvent event) throws IOException {
+            line.setLength(0);
+            event.appendTo(line);
+            line.append('\n');
+            writer.append(line);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeWriter) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        }
+    }
+}
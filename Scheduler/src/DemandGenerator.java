@@ -0,0 +1,172 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of crowd count traces for load testing.
+ *
+ * Every stop reports a count every cycle. A stop's count follows its own base demand,
+ * scaled up around the configured peaks (e.g. the morning rush), plus surges: sudden
+ * crowds (an event letting out, a cancelled service) that start at random and decay
+ * over the following cycles, plus some noise. The same seed and settings always give the
+ * same trace.
+ *
+ * Traces are written either in the data file format read by DataReader, or in the binary
+ * format of IngestServer (12-byte big-endian records, with an END_OF_CYCLE record after
+ * each cycle), which needs no parsing and can be replayed straight into a live listener.
+ */
+public class DemandGenerator {
+    private final long seed;
+    private final List<Stop> stops;
+    private final int startSecondsOfDay;
+    private final int cycleSeconds;
+    private final int cycles;
+    private final List<double[]> peaks = new ArrayList<>(); // {centre seconds of day, width seconds, multiplier}
+    private double baseDemand = 5; // Mean people waiting at an average stop outside peaks
+    private double surgeProbability = 0; // Chance per stop per cycle of a surge starting
+    private double surgeSize = 30; // Mean people added by a surge
+    private double surgeDecay = 0.3; // Fraction of a surge gone after each cycle
+
+    public DemandGenerator(long seed, List<Stop> stops, int startSecondsOfDay, int cycleSeconds, int cycles) {
+        this.seed = seed;
+        this.stops = stops;
+        this.startSecondsOfDay = startSecondsOfDay;
+        this.cycleSeconds = cycleSeconds;
+        this.cycles = cycles;
+    }
+
+    public void setBaseDemand(double baseDemand) {
+        this.baseDemand = baseDemand;
+    }
+
+    /**
+     * Add a peak: demand rises smoothly towards the centre time, where it is
+     * (1 + multiplier) times the base demand. Width is roughly the peak's half-length.
+     */
+    public void addPeak(int centreSecondsOfDay, int widthSeconds, double multiplier) {
+        peaks.add(new double[] {centreSecondsOfDay, widthSeconds, multiplier});
+    }
+
+    public void setSurges(double probabilityPerStopCycle, double meanSize, double decayPerCycle) {
+        this.surgeProbability = probabilityPerStopCycle;
+        this.surgeSize = meanSize;
+        this.surgeDecay = decayPerCycle;
+    }
+
+    public int getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Hand every record of the trace to the consumer, in cycle order, with an
+     * IngestServer.END_OF_CYCLE record after each cycle.
+     */
+    public void generate(RecordQueue.RecordConsumer consumer) {
+        Random random = new Random(seed);
+        int stopCount = stops.size();
+
+        // Some stops are much busier than others
+        double[] weight = new double[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            weight[i] = Math.exp(random.nextGaussian() * 0.6);
+        }
+        double[] surge = new double[stopCount];
+
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            int secondsOfDay = startSecondsOfDay + cycle * cycleSeconds;
+            double level = baseDemand * peakFactor(secondsOfDay);
+            for (int i = 0; i < stopCount; i++) {
+                surge[i] *= 1 - surgeDecay;
+                if (surgeProbability > 0 && random.nextDouble() < surgeProbability) {
+                    surge[i] += surgeSize * (0.5 + random.nextDouble());
+                }
+                double expected = level * weight[i] + surge[i];
+                double noise = random.nextGaussian() * Math.sqrt(expected);
+                int count = (int) Math.max(0, Math.round(expected + noise));
+                consumer.accept(stops.get(i).getId(), count, secondsOfDay);
+            }
+            consumer.accept(IngestServer.END_OF_CYCLE, 0, secondsOfDay);
+        }
+    }
+
+    private double peakFactor(int secondsOfDay) {
+        double factor = 1;
+        for (double[] peak : peaks) {
+            double distance = (secondsOfDay - peak[0]) / peak[1];
+            factor += peak[2] * Math.exp(-distance * distance / 2);
+        }
+        return factor;
+    }
+
+    /**
+     * Write the trace in the data file format (stop id, crowdCount, timestamp, state).
+     */
+    public void writeText(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("# Generated demand trace: seed " + seed + ", " + stops.size() + " stops, " + cycles + " cycles\n");
+            writer.write("# Format: stop id, crowdCount, timestamp, state\n");
+            StringBuilder line = new StringBuilder();
+            generate((stopId, crowdCount, secondsOfDay) -> {
+                if (stopId == IngestServer.END_OF_CYCLE) {
+                    return;
+                }
+                line.setLength(0);
+                line.append(stopId).append(", ").append(crowdCount).append(", ")
+                    .append(DataReader.formatTime(secondsOfDay)).append(", ").append(crowdState(crowdCount)).append('\n');
+                try {
+                    writer.append(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String crowdState(int crowdCount) {
+        if (crowdCount < 5) {
+            return "empty";
+        }
+        return crowdCount < 20 ? "moderate" : "busy";
+    }
+
+    /**
+     * Write the trace in the binary IngestServer record format.
+     */
+    public void writeBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IngestServer.RECORD_SIZE * 8192);
+            generate((stopId, crowdCount, secondsOfDay) -> {
+                try {
+                    if (buffer.remaining() < IngestServer.RECORD_SIZE) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putInt(stopId).putInt(crowdCount).putInt(secondsOfDay);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            flush(channel, buffer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
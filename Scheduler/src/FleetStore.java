@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Vehicle fields stored as parallel primitive arrays, one slot per vehicle: route ordinal,
+ * stop index, state, passenger count, capacity and passengers-when-present, the vehicle's
+ * own timings (cycles spent at a stop and between stops) and its next scheduled event.
+ *
+ * Vehicle objects are flyweight views onto a slot, so code working with Vehicles is
+ * unchanged, while the per-cycle vehicle loop walks the arrays slot by slot instead of
+ * chasing a pointer per vehicle. The state changes a vehicle goes through live here, so
+ * both paths behave the same.
+ *
+ * Slots of retired vehicles go on a free list and are taken by the next vehicle added, so
+ * the arrays only grow to the largest fleet held at once. A Vehicle outside a scheduler's
+ * fleet (new, scheduled or retired) has a one-slot store of its own.
+ */
+public class FleetStore {
+    private static final VehicleState[] STATES = VehicleState.values();
+
+    // Per slot; package-private so the vehicle loop can read them directly
+    int[] routeOrdinal;
+    int[] stopIndex; // Position of the current stop along the route
+    byte[] state; // VehicleState ordinal
+    int[] passengerCount;
+    int[] capacity;
+    int[] passengersWhenPresent;
+    int[] dwellCycles; // Cycles PRESENT at a stop before departing
+    int[] travelCycles; // Cycles DEPARTING before arriving at the next stop
+    byte[] nextEvent; // VehicleEvent ordinal, for vehicles in a scheduler's fleet
+    int[] nextEventCycle; // Cycle the next event is due
+    private Vehicle[] vehicles; // View of each slot, null for a free slot
+
+    private int[] freeSlots; // Stack of free slots below highWater
+    private int freeCount = 0;
+    private int highWater = 0; // Slots at or above this have never been used
+    private int size = 0;
+    private Route[] routes = new Route[4]; // By route ordinal
+    private final Map<Route, Integer> routeOrdinals = new IdentityHashMap<>();
+    private VehicleListener listener; // Told about changes made through Vehicle, null if none
+
+    public FleetStore(int initialCapacity) {
+        int length = Math.max(1, initialCapacity);
+        this.routeOrdinal = new int[length];
+        this.stopIndex = new int[length];
+        this.state = new byte[length];
+        this.passengerCount = new int[length];
+        this.capacity = new int[length];
+        this.passengersWhenPresent = new int[length];
+        this.dwellCycles = new int[length];
+        this.travelCycles = new int[length];
+        this.nextEvent = new byte[length];
+        this.nextEventCycle = new int[length];
+        this.vehicles = new Vehicle[length];
+        this.freeSlots = new int[length];
+    }
+
+    /**
+     * Take a slot for a vehicle on a route (a free one if there is one); timings start at one
+     * cycle, every other field at zero.
+     */
+    int allocate(Route route, Vehicle vehicle) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (highWater == vehicles.length) {
+                grow(highWater * 2);
+            }
+            slot = highWater++;
+        }
+        Integer ordinal = routeOrdinals.get(route);
+        if (ordinal == null) {
+            ordinal = routeOrdinals.size();
+            routeOrdinals.put(route, ordinal);
+            if (ordinal == routes.length) {
+                routes = Arrays.copyOf(routes, ordinal * 2);
+            }
+            routes[ordinal] = route;
+        }
+        routeOrdinal[slot] = ordinal;
+        stopIndex[slot] = 0;
+        state[slot] = 0;
+        passengerCount[slot] = 0;
+        capacity[slot] = 0;
+        passengersWhenPresent[slot] = 0;
+        dwellCycles[slot] = 1;
+        travelCycles[slot] = 1;
+        nextEvent[slot] = 0;
+        nextEventCycle[slot] = 0;
+        vehicles[slot] = vehicle;
+        size++;
+        return slot;
+    }
+
+    private void grow(int length) {
+        routeOrdinal = Arrays.copyOf(routeOrdinal, length);
+        stopIndex = Arrays.copyOf(stopIndex, length);
+        state = Arrays.copyOf(state, length);
+        passengerCount = Arrays.copyOf(passengerCount, length);
+        capacity = Arrays.copyOf(capacity, length);
+        passengersWhenPresent = Arrays.copyOf(passengersWhenPresent, length);
+        dwellCycles = Arrays.copyOf(dwellCycles, length);
+        travelCycles = Arrays.copyOf(travelCycles, length);
+        nextEvent = Arrays.copyOf(nextEvent, length);
+        nextEventCycle = Arrays.copyOf(nextEventCycle, length);
+        vehicles = Arrays.copyOf(vehicles, length);
+        freeSlots = Arrays.copyOf(freeSlots, length);
+    }
+
+    private void free(int slot) {
+        vehicles[slot] = null;
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    /**
+     * Move a vehicle's fields into a slot of this store; the vehicle is a view onto it from now on.
+     * Its next event stays behind: events belong to the fleet the vehicle is in.
+     */
+    public void adopt(Vehicle vehicle) {
+        FleetStore from = vehicle.getStore();
+        int fromSlot = vehicle.getSlot();
+        int slot = allocate(vehicle.getRoute(), vehicle);
+        stopIndex[slot] = from.stopIndex[fromSlot];
+        state[slot] = from.state[fromSlot];
+        passengerCount[slot] = from.passengerCount[fromSlot];
+        capacity[slot] = from.capacity[fromSlot];
+        passengersWhenPresent[slot] = from.passengersWhenPresent[fromSlot];
+        dwellCycles[slot] = from.dwellCycles[fromSlot];
+        travelCycles[slot] = from.travelCycles[fromSlot];
+        from.free(fromSlot);
+        vehicle.moveTo(this, slot);
+    }
+
+    /**
+     * Move a vehicle out into a store of its own, freeing its slot here.
+     */
+    public void release(Vehicle vehicle) {
+        new FleetStore(1).adopt(vehicle);
+    }
+
+    /**
+     * Have changes made through the Vehicle views of this store's slots reported.
+     * The vehicle loop works on the arrays directly and is not reported.
+     */
+    public void setListener(VehicleListener listener) {
+        this.listener = listener;
+    }
+
+    void vehicleChanged(int slot) {
+        if (listener != null) {
+            listener.vehicleChanged(vehicles[slot]);
+        }
+    }
+
+    /**
+     * Vehicle in a slot, or null if the slot is free.
+     */
+    public Vehicle vehicleAt(int slot) {
+        return vehicles[slot];
+    }
+
+    /**
+     * Slots 0 .. getHighWater()-1 may hold vehicles; check vehicleAt() for free ones.
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Routes get ordinals 0 .. getRouteCount()-1 as their first vehicle joins the store.
+     */
+    int getRouteCount() {
+        return routeOrdinals.size();
+    }
+
+    Route getRoute(int ordinal) {
+        return routes[ordinal];
+    }
+
+    Route routeOf(int slot) {
+        return routes[routeOrdinal[slot]];
+    }
+
+    VehicleState stateOf(int slot) {
+        return STATES[state[slot]];
+    }
+
+    void setState(int slot, VehicleState value) {
+        state[slot] = (byte) value.ordinal();
+    }
+
+    /**
+     * Move to the next stop (no wrapping around) and become ARRIVING there.
+     */
+    void moveToNextStop(int slot) {
+        if (stopIndex[slot] < routeOf(slot).getLastPosition()) {
+            stopIndex[slot]++;
+            setState(slot, VehicleState.ARRIVING);
+            passengersWhenPresent[slot] = 0; // Reset for new stop
+        }
+    }
+}
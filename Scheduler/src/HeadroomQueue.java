@@ -0,0 +1,394 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Incremental deployment check: every vehicle's minimum headroom, kept in an indexed
+ * min-heap so the deployment decision is a look at the heap's head.
+ *
+ * A vehicle's headroom is its deployment threshold (capacity x route threshold) minus its
+ * highest predicted fullness at any future stop, with the same predictions as Prediction.
+ * Deployment is needed when any headroom is negative, on the routes of those vehicles
+ * (getBreachingRoutes()). Predicted fullness never goes down along the route (vehicles
+ * only pick up), so the highest is the one at the last future stop.
+ *
+ * A vehicle's predictions depend on the counts at its stop and later stops of its route
+ * and on the vehicles ahead of it, so a change to either invalidates predictions along the
+ * route. Stop count changes are picked up by listening to the stops of every added route;
+ * vehicle changes are reported with routeChanged(), both the scheduler's own vehicle events
+ * and changes made through Vehicle setters (which its fleet reports to a VehicleListener).
+ * refresh() then sweeps only the routes
+ * that changed and updates their vehicles' heap entries. Routes with no changed stops and no moving
+ * vehicles cost nothing, and marking a route as changed is a flag write.
+ *
+ * Changes may be reported from several threads at once (each route's cycle work runs as
+ * its own task in parallel mode); everything else runs on the scheduling thread. With a
+ * pool, refresh() sweeps the changed routes in parallel and then updates the heap route
+ * by route in route order, exactly as it does without one.
+ */
+public class HeadroomQueue {
+    private final Map<Route, RouteVehicleIndex> vehicleIndexes;
+    private final Map<Route, Integer> routeOrdinals = new IdentityHashMap<>();
+    private final Map<Stop, RoutesThroughStop> stopListeners = new IdentityHashMap<>(); // Only used when adding routes
+    private Route[] routes = new Route[16]; // By route ordinal
+    private RouteVehicleIndex[] indexes = new RouteVehicleIndex[16]; // By route ordinal, looked up on first use
+    private boolean[] changed = new boolean[16]; // By route ordinal: changed since the last refresh
+    private double[] peakFullness = new double[16]; // By route ordinal: highest predicted fullness / capacity
+    private int[] minHeadroom = new int[16]; // By route ordinal: least headroom of its vehicles, MAX_VALUE if none
+    private RouteSweep[] sweeps = new RouteSweep[16]; // By route ordinal: the last refresh's sweep, null if none
+    private Vehicle[] heap = new Vehicle[16];
+    private int[] headroom = new int[16]; // Parallel to heap
+    private int size = 0;
+    private int vehiclesEvaluated = 0; // By the last refresh()
+    private int predictionsEvaluated = 0;
+
+    public HeadroomQueue(Map<Route, RouteVehicleIndex> vehicleIndexes) {
+        this.vehicleIndexes = vehicleIndexes;
+    }
+
+    /**
+     * Marks the routes through a stop as changed when its count changes.
+     */
+    private class RoutesThroughStop implements StopListener {
+        private int[] ordinals = new int[0];
+
+        @Override
+        public void peopleCountChanged(Stop stop, int previousCount) {
+            for (int ordinal : ordinals) {
+                routeChanged(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Start following a route's stop counts.
+     */
+    public void addRoute(Route route) {
+        if (routeOrdinals.containsKey(route)) {
+            return;
+        }
+        int ordinal = routeOrdinals.size();
+        routeOrdinals.put(route, ordinal);
+        if (ordinal == routes.length) {
+            routes = Arrays.copyOf(routes, ordinal * 2);
+            indexes = Arrays.copyOf(indexes, ordinal * 2);
+            changed = Arrays.copyOf(changed, ordinal * 2);
+            peakFullness = Arrays.copyOf(peakFullness, ordinal * 2);
+            minHeadroom = Arrays.copyOf(minHeadroom, ordinal * 2);
+            sweeps = Arrays.copyOf(sweeps, ordinal * 2);
+        }
+        routes[ordinal] = route;
+        minHeadroom[ordinal] = Integer.MAX_VALUE;
+        for (Stop stop : route.getStops()) {
+            RoutesThroughStop listener = stopListeners.get(stop);
+            if (listener == null) {
+                listener = new RoutesThroughStop();
+                stopListeners.put(stop, listener);
+                stop.addListener(listener);
+            }
+            int[] ordinals = listener.ordinals;
+            if (ordinals.length == 0 || ordinals[ordinals.length - 1] != ordinal) { // A route may pass a stop twice
+                listener.ordinals = Arrays.copyOf(ordinals, ordinals.length + 1);
+                listener.ordinals[ordinals.length] = ordinal;
+            }
+        }
+        routeChanged(ordinal);
+    }
+
+    /**
+     * A vehicle on the route was added, moved, changed state or picked up passengers.
+     */
+    public void routeChanged(Route route) {
+        Integer ordinal = routeOrdinals.get(route);
+        if (ordinal == null) {
+            addRoute(route); // Marks it as changed
+        } else {
+            routeChanged(ordinal.intValue());
+        }
+    }
+
+    private void routeChanged(int ordinal) {
+        changed[ordinal] = true;
+    }
+
+    /**
+     * A vehicle left the route (call after removing it from its route index).
+     */
+    public void vehicleRemoved(Vehicle vehicle) {
+        remove(vehicle);
+        routeChanged(vehicle.getRoute());
+    }
+
+    /**
+     * Forget every vehicle (e.g. before state is restored); every route counts as changed.
+     */
+    public void clear() {
+        while (size > 0) {
+            heap[--size].heapSlot = -1;
+            heap[size] = null;
+        }
+        Arrays.fill(indexes, null); // The scheduler may replace its route indexes
+        Arrays.fill(changed, 0, routeOrdinals.size(), true);
+        Arrays.fill(minHeadroom, 0, routeOrdinals.size(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Headroom of the vehicles on one route, as swept (NO_FUTURE_STOPS for vehicles
+     * past their last future stop).
+     */
+    private static final class RouteHeadroom {
+        static final int NO_FUTURE_STOPS = Integer.MIN_VALUE;
+
+        final int ordinal;
+        final RouteSweep sweep;
+        final Vehicle[] vehicles;
+        final int[] headroom;
+        double peakFullness = 0; // Highest predicted fullness as a share of capacity
+        int minHeadroom = Integer.MAX_VALUE; // Of the vehicles with future stops
+
+        RouteHeadroom(int ordinal, RouteVehicleIndex index) {
+            this.ordinal = ordinal;
+            Route route = index.getRoute();
+            this.sweep = RouteSweep.sweep(index);
+            int[][] fullness = sweep.getFullnessMatrix();
+            // Future stops as in Prediction.getFutureStops: after the current one, before the last
+            int lastFutureStop = route.getLastPosition() - 1;
+            this.vehicles = sweep.getVehicles();
+            this.headroom = new int[vehicles.length];
+            for (int v = 0; v < vehicles.length; v++) {
+                Vehicle vehicle = vehicles[v];
+                if (vehicle.getStopIndex() >= lastFutureStop) {
+                    headroom[v] = NO_FUTURE_STOPS;
+                } else {
+                    int threshold = (int) (vehicle.getCapacity() * route.getDeploymentThreshold());
+                    headroom[v] = threshold - fullness[v][lastFutureStop];
+                    minHeadroom = Math.min(minHeadroom, headroom[v]);
+                    if (vehicle.getCapacity() > 0) {
+                        peakFullness = Math.max(peakFullness, (double) fullness[v][lastFutureStop] / vehicle.getCapacity());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recompute the headroom of every vehicle on a changed route.
+     */
+    public void refresh() {
+        refresh(null);
+    }
+
+    /**
+     * Recompute the headroom of every vehicle on a changed route, sweeping the routes on
+     * the pool if there is one.
+     */
+    public void refresh(ForkJoinPool pool) {
+        vehiclesEvaluated = 0;
+        predictionsEvaluated = 0;
+        List<RouteVehicleIndex> changedIndexes = new ArrayList<>();
+        int[] changedOrdinals = new int[16];
+        for (int ordinal = 0; ordinal < routeOrdinals.size(); ordinal++) {
+            if (!changed[ordinal]) {
+                continue;
+            }
+            changed[ordinal] = false;
+            peakFullness[ordinal] = 0;
+            minHeadroom[ordinal] = Integer.MAX_VALUE;
+            sweeps[ordinal] = null;
+            RouteVehicleIndex index = indexes[ordinal];
+            if (index == null) {
+                index = vehicleIndexes.get(routes[ordinal]);
+                indexes[ordinal] = index;
+            }
+            if (index != null && index.size() > 0) {
+                if (changedIndexes.size() == changedOrdinals.length) {
+                    changedOrdinals = Arrays.copyOf(changedOrdinals, changedOrdinals.length * 2);
+                }
+                changedOrdinals[changedIndexes.size()] = ordinal;
+                changedIndexes.add(index);
+            }
+        }
+        if (pool == null) {
+            for (int i = 0; i < changedIndexes.size(); i++) {
+                apply(new RouteHeadroom(changedOrdinals[i], changedIndexes.get(i)));
+            }
+            return;
+        }
+        RouteHeadroom[] swept = new RouteHeadroom[changedIndexes.size()];
+        int[] sweptOrdinals = changedOrdinals;
+        RouteTasks.forEachIndex(pool, swept.length, i -> swept[i] = new RouteHeadroom(sweptOrdinals[i], changedIndexes.get(i)));
+        for (RouteHeadroom route : swept) {
+            apply(route); // In route order, as without a pool
+        }
+    }
+
+    private void apply(RouteHeadroom route) {
+        peakFullness[route.ordinal] = route.peakFullness;
+        minHeadroom[route.ordinal] = route.minHeadroom;
+        sweeps[route.ordinal] = route.sweep;
+        for (int v = 0; v < route.vehicles.length; v++) {
+            vehiclesEvaluated++;
+            if (route.headroom[v] == RouteHeadroom.NO_FUTURE_STOPS) {
+                remove(route.vehicles[v]); // No future stops to predict for
+            } else {
+                update(route.vehicles[v], route.headroom[v]);
+                predictionsEvaluated++;
+            }
+        }
+    }
+
+    /**
+     * Whether any vehicle is predicted to exceed its threshold (refreshes first).
+     */
+    public boolean isDeploymentNeeded() {
+        return isDeploymentNeeded(null);
+    }
+
+    /**
+     * Whether any vehicle is predicted to exceed its threshold, refreshing on the pool first.
+     */
+    public boolean isDeploymentNeeded(ForkJoinPool pool) {
+        refresh(pool);
+        return size > 0 && headroom[0] < 0;
+    }
+
+    /**
+     * Vehicle with the least headroom, or null if no vehicle has future stops.
+     * Only current after refresh().
+     */
+    public Vehicle peek() {
+        return size > 0 ? heap[0] : null;
+    }
+
+    /**
+     * Least headroom of any vehicle, or Integer.MAX_VALUE if none. Only current after refresh().
+     */
+    public int getMinHeadroom() {
+        return size > 0 ? headroom[0] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Routes with a vehicle predicted to exceed its threshold, in the order they were added.
+     * Only current after refresh().
+     */
+    public List<Route> getBreachingRoutes() {
+        List<Route> breaching = new ArrayList<>();
+        if (size == 0 || headroom[0] >= 0) {
+            return breaching; // The heap's head is the least headroom of any route
+        }
+        for (int ordinal = 0; ordinal < routeOrdinals.size(); ordinal++) {
+            if (minHeadroom[ordinal] < 0) {
+                breaching.add(routes[ordinal]);
+            }
+        }
+        return breaching;
+    }
+
+    /**
+     * The sweep of a route's vehicles made by the last refresh(), or null if the route has
+     * changed since (or had no vehicles), so the sweep may no longer hold.
+     */
+    public RouteSweep getSweep(Route route) {
+        Integer ordinal = routeOrdinals.get(route);
+        return ordinal == null || changed[ordinal] ? null : sweeps[ordinal];
+    }
+
+    /**
+     * Highest predicted fullness at any future stop of any vehicle, as a share of its
+     * capacity (1.0 = full), or 0 if no vehicle has future stops. Only current after refresh().
+     */
+    public double getPeakFullness() {
+        double peak = 0;
+        for (int ordinal = 0; ordinal < routeOrdinals.size(); ordinal++) {
+            peak = Math.max(peak, peakFullness[ordinal]);
+        }
+        return peak;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getVehiclesEvaluated() {
+        return vehiclesEvaluated;
+    }
+
+    public int getPredictionsEvaluated() {
+        return predictionsEvaluated;
+    }
+
+    private void update(Vehicle vehicle, int value) {
+        int slot = vehicle.heapSlot;
+        if (slot < 0) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                headroom = Arrays.copyOf(headroom, size * 2);
+            }
+            slot = size++;
+            place(vehicle, value, slot);
+            siftUp(slot);
+        } else if (value < headroom[slot]) {
+            headroom[slot] = value;
+            siftUp(slot);
+        } else if (value > headroom[slot]) {
+            headroom[slot] = value;
+            siftDown(slot);
+        }
+    }
+
+    private void remove(Vehicle vehicle) {
+        int slot = vehicle.heapSlot;
+        if (slot < 0) {
+            return;
+        }
+        vehicle.heapSlot = -1;
+        size--;
+        if (slot != size) {
+            place(heap[size], headroom[size], slot);
+            siftDown(slot);
+            siftUp(slot);
+        }
+        heap[size] = null;
+    }
+
+    private void place(Vehicle vehicle, int value, int slot) {
+        heap[slot] = vehicle;
+        headroom[slot] = value;
+        vehicle.heapSlot = slot;
+    }
+
+    private void siftUp(int slot) {
+        Vehicle vehicle = heap[slot];
+        int value = headroom[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (headroom[parent] <= value) {
+                break;
+            }
+            place(heap[parent], headroom[parent], slot);
+            slot = parent;
+        }
+        place(vehicle, value, slot);
+    }
+
+    private void siftDown(int slot) {
+        Vehicle vehicle = heap[slot];
+        int value = headroom[slot];
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            if (child + 1 < size && headroom[child + 1] < headroom[child]) {
+                child++;
+            }
+            if (value <= headroom[child]) {
+                break;
+            }
+            place(heap[child], headroom[child], slot);
+            slot = child;
+        }
+        place(vehicle, value, slot);
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Stand-in count producer for testing live ingest locally.
+ * Replays a data file to an IngestServer in the binary record format, one cycle
+ * (timestamp) at a time, ending each cycle with an END_OF_CYCLE marker.
+ *
+ * Usage: java IngestProducer <data file> <port | unix socket path> [milliseconds between cycles]
+ */
+public class IngestProducer {
+    private final SocketChannel channel;
+    private final ByteBuffer buffer;
+
+    public IngestProducer(String address) throws IOException {
+        SocketAddress socketAddress = IngestServer.parseAddress(address);
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.channel = SocketChannel.open();
+        }
+        channel.connect(socketAddress);
+        this.buffer = ByteBuffer.allocateDirect(IngestServer.RECORD_SIZE * 1024);
+    }
+
+    public void send(int stopId, int crowdCount, int secondsOfDay) throws IOException {
+        if (buffer.remaining() < IngestServer.RECORD_SIZE) {
+            flush();
+        }
+        buffer.putInt(stopId).putInt(crowdCount).putInt(secondsOfDay);
+    }
+
+    public void endCycle(int secondsOfDay) throws IOException {
+        send(IngestServer.END_OF_CYCLE, 0, secondsOfDay);
+        flush();
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: java IngestProducer <data file> <port | unix socket path> [milliseconds between cycles]");
+            return;
+        }
+        long intervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        IngestProducer producer = new IngestProducer(args[1]);
+        int records = 0;
+        int cycles = 0;
+        try (DataReader.RecordCursor cursor = new DataReader(args[0]).openCursor()) {
+            DataReader.CountRecord record = cursor.getRecord();
+            int timestamp = -1;
+            while (cursor.next()) {
+                if (timestamp != -1 && timestamp != record.getSecondsOfDay()) {
+                    producer.endCycle(timestamp);
+                    cycles++;
+                    if (intervalMillis > 0) {
+                        Thread.sleep(intervalMillis);
+                    }
+                }
+                producer.send(record.getStopId(), record.getCrowdCount(), record.getSecondsOfDay());
+                timestamp = record.getSecondsOfDay();
+                records++;
+            }
+            if (timestamp != -1) {
+                producer.endCycle(timestamp);
+                cycles++;
+            }
+        } finally {
+            producer.close();
+        }
+        System.out.println("Sent " + records + " records in " + cycles + " cycles");
+    }
+}
@@ -0,0 +1,510 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local listener that feeds the scheduler from live crowd counts.
+ *
+ * Producers (e.g. the crowd counter next to a camera) connect over TCP on the loopback
+ * interface or over a Unix domain socket and send a stream of fixed-size binary records,
+ * all big-endian ints:
+ *
+ *     stop id | crowd count | timestamp (seconds of day)
+ *
+ * A producer ends the current cycle by sending a record with stop id END_OF_CYCLE, or by
+ * moving on to a later timestamp (so a single producer's records are grouped into cycles
+ * by timestamp exactly like data file input). The cycle is processed once every producer
+ * taking part has ended it: those that sent records in it, and those that ended the one
+ * before (so a producer that is a little late is waited for). Producers that stay silent
+ * are not waited for, and a cycle some producer has ended is processed anyway after
+ * CYCLE_END_TIMEOUT_MILLIS. A producer's records after it has ended the cycle wait for
+ * the next one, so producers with skewed clocks do not split cycles between them; the
+ * cycle takes the newest timestamp of its records.
+ *
+ * Threading: one ingest thread runs a selector over all producer connections, so thousands
+ * of mostly idle producers cost a small buffer each rather than a thread each. It decodes
+ * records into a bounded RecordQueue, which the scheduler thread drains and runs the
+ * (single-threaded) cycle logic on. When the queue is full, the ingest thread stops reading
+ * from the producer it was decoding until the scheduler catches up, so TCP flow control
+ * pushes back on that producer alone; accepting and reading from other producers goes on.
+ *
+ * Coalescing mode: records go into a CoalescingBuffer instead of the queue, keeping only
+ * the latest count per stop. Producers are then never paused, and the scheduler runs a
+ * cycle over the stops that changed every cycle interval, or when the producers end the
+ * cycle with END_OF_CYCLE (only the marker ends a cycle there, and records are never held
+ * back). Bursts of updates (e.g. after reconnecting) cost nothing extra per cycle.
+ */
+public class IngestServer implements Closeable {
+    public static final int RECORD_SIZE = 12; // Three 4-byte ints
+    public static final int END_OF_CYCLE = -1; // Stop id marking the end of a cycle
+
+    private static final int QUEUE_CAPACITY = 1 << 16; // Records
+    private static final int PRODUCER_BUFFER_SIZE = RECORD_SIZE * 128;
+    private static final long PAUSED_RETRY_MILLIS = 10; // How often paused producers are retried
+    static final long CYCLE_END_TIMEOUT_MILLIS = 2000; // Longest wait for the rest once a producer has ended a cycle
+
+    private final Scheduler scheduler;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final RecordQueue queue;
+    private final Path socketPath; // Null when listening on TCP
+    private final String addressDescription;
+    private final ArrayDeque<Producer> pausedProducers; // Only used by the ingest thread
+    private final CoalescingBuffer coalescingBuffer; // Null unless in coalescing mode
+    private final long cycleIntervalNanos; // Coalescing mode: time between cycles (0 = only on END_OF_CYCLE)
+    private volatile boolean cycleRequested; // Coalescing mode: a producer sent END_OF_CYCLE
+    private volatile Thread schedulerThread;
+    private volatile boolean running;
+    private volatile int connectedProducers;
+    // Ingest thread only: the producers taking part in the current cycle
+    private long cycleGeneration = 0; // Counts cycle ends
+    private int producersActive = 0; // Sent records or END_OF_CYCLE in this cycle
+    private int producersEnded = 0; // Of those, ended this cycle (disconnected ones included)
+    private int producersLeft = 0; // Of those, disconnected
+    private int producersExpected = 0; // Ended the last cycle and sent nothing since
+    private long cycleEndDeadline; // System.nanoTime() by which a cycle with producersEnded > 0 ends anyway
+    private boolean cycleEndPending; // Every producer has ended the cycle, but the queue was full
+
+    /**
+     * One producer connection and its partially received records.
+     */
+    private static class Producer {
+        private final SocketChannel channel;
+        private final ByteBuffer buffer; // Kept in write mode between reads
+        private SelectionKey key;
+        private long activeGeneration = Long.MIN_VALUE; // Cycle this producer last sent something in
+        private long endedGeneration = Long.MIN_VALUE; // Cycle this producer last ended
+        private int cycleTimestamp; // Timestamp of its first record in activeGeneration
+
+        Producer(SocketChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(PRODUCER_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Listen on a TCP port on the loopback interface (address is a port number),
+     * or on a Unix domain socket (address is a file path).
+     */
+    public IngestServer(Scheduler scheduler, String address) throws IOException {
+        this(scheduler, address, null, 0);
+    }
+
+    /**
+     * Listen in coalescing mode: only the latest count per stop is kept between cycles,
+     * and a cycle runs every cycleIntervalMillis (or only on END_OF_CYCLE if 0).
+     */
+    public IngestServer(Scheduler scheduler, String address, long cycleIntervalMillis) throws IOException {
+        this(scheduler, address, new CoalescingBuffer(knownStopIds(scheduler)), cycleIntervalMillis);
+    }
+
+    private IngestServer(Scheduler scheduler, String address, CoalescingBuffer coalescingBuffer,
+                         long cycleIntervalMillis) throws IOException {
+        this.scheduler = scheduler;
+        this.coalescingBuffer = coalescingBuffer;
+        this.cycleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(cycleIntervalMillis);
+        SocketAddress socketAddress = parseAddress(address);
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            this.socketPath = ((UnixDomainSocketAddress) socketAddress).getPath();
+            Files.deleteIfExists(socketPath); // Left over from a previous run
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.socketPath = null;
+            this.serverChannel = ServerSocketChannel.open();
+        }
+        serverChannel.bind(socketAddress, 1024);
+        serverChannel.configureBlocking(false);
+        this.addressDescription = serverChannel.getLocalAddress().toString();
+        this.selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.queue = new RecordQueue(QUEUE_CAPACITY);
+        this.pausedProducers = new ArrayDeque<>();
+        this.running = true; // Until stopped, even before serve() starts
+    }
+
+    private static int[] knownStopIds(Scheduler scheduler) {
+        int count = 0;
+        for (Route route : scheduler.getRoutes()) {
+            count += route.size();
+        }
+        int[] stopIds = new int[count];
+        int i = 0;
+        for (Route route : scheduler.getRoutes()) {
+            for (Stop stop : route.getStops()) {
+                stopIds[i++] = stop.getId();
+            }
+        }
+        return stopIds;
+    }
+
+    /**
+     * A port number means TCP on the loopback interface; anything else is a Unix socket path.
+     */
+    static SocketAddress parseAddress(String address) {
+        try {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        } catch (NumberFormatException e) {
+            return UnixDomainSocketAddress.of(address);
+        }
+    }
+
+    public String getAddressDescription() {
+        return addressDescription;
+    }
+
+    public int getConnectedProducers() {
+        return connectedProducers;
+    }
+
+    /**
+     * Start the ingest thread and run the scheduler's cycle logic on the calling thread
+     * until stop() is called. The records received by then are processed as a last cycle.
+     */
+    public void serve() {
+        schedulerThread = Thread.currentThread();
+        Thread ingestThread = new Thread(this::runIngestLoop, "ingest-selector");
+        ingestThread.setDaemon(true);
+        ingestThread.start();
+
+        RecordQueue.RecordConsumer consumer = coalescingBuffer != null ? this::acceptCoalesced : this::applyRecord;
+        if (coalescingBuffer != null) {
+            serveCoalesced(consumer);
+        } else {
+            while (running) {
+                queue.awaitRecords(TimeUnit.MILLISECONDS.toNanos(100));
+                queue.drain(consumer);
+            }
+        }
+
+        // Stopped: once the ingest thread is gone nothing more arrives, so the rest is the last cycle
+        try {
+            ingestThread.join(); // It stops at its next wakeup
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (coalescingBuffer != null) {
+            coalescingBuffer.drain(consumer);
+        } else {
+            queue.drain(consumer);
+        }
+        scheduler.endCycle();
+    }
+
+    /**
+     * Make serve() finish the cycle in progress and return. May be called from any thread,
+     * e.g. a shutdown hook; close the server once serve() has returned.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        Thread thread = schedulerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Coalescing mode scheduler loop: wait for the next cycle, then feed the scheduler
+     * the latest count of each changed stop, all under the newest timestamp received.
+     */
+    private void serveCoalesced(RecordQueue.RecordConsumer consumer) {
+        long nextCycle = System.nanoTime() + cycleIntervalNanos;
+        while (running) {
+            long wait = cycleIntervalNanos > 0 ? nextCycle - System.nanoTime() : TimeUnit.MILLISECONDS.toNanos(100);
+            if (!cycleRequested && wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            cycleRequested = false;
+            if (cycleIntervalNanos > 0) {
+                nextCycle += cycleIntervalNanos;
+            }
+            coalescingBuffer.drain(consumer);
+            scheduler.endCycle();
+        }
+    }
+
+    private void acceptCoalesced(int stopId, int crowdCount, int secondsOfDay) {
+        scheduler.addToCycle(stopId, crowdCount, coalescingBuffer.getLatestTimestamp());
+    }
+
+    private void applyRecord(int stopId, int crowdCount, int secondsOfDay) {
+        if (stopId == END_OF_CYCLE) {
+            scheduler.endCycle();
+        } else {
+            scheduler.addToCycle(stopId, crowdCount, secondsOfDay); // The ingest thread ends the cycles
+        }
+    }
+
+    private void runIngestLoop() {
+        try {
+            while (running) {
+                selector.select(selectTimeoutMillis());
+                endCycleIfOverdue();
+                resumePausedProducers();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        acceptProducers();
+                    } else if (key.isReadable()) {
+                        readFrom((Producer) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error in ingest loop: " + e.getMessage());
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed without stop() while serving: nothing more to read
+        }
+    }
+
+    /**
+     * While producers are paused, wake up regularly to check for queue space; while a
+     * cycle end waits for stragglers, wake up when it is due. Otherwise 0: no timeout.
+     */
+    private long selectTimeoutMillis() {
+        long timeout = pausedProducers.isEmpty() && !cycleEndPending ? 0 : PAUSED_RETRY_MILLIS;
+        if (producersEnded > 0) {
+            long untilDue = Math.max(1, TimeUnit.NANOSECONDS.toMillis(cycleEndDeadline - System.nanoTime()) + 1);
+            timeout = timeout == 0 ? untilDue : Math.min(timeout, untilDue);
+        }
+        return timeout;
+    }
+
+    private void acceptProducers() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            Producer producer = new Producer(channel);
+            producer.key = channel.register(selector, SelectionKey.OP_READ, producer);
+            connectedProducers++;
+        }
+    }
+
+    private void readFrom(Producer producer) {
+        int read;
+        try {
+            read = producer.channel.read(producer.buffer);
+        } catch (IOException e) {
+            read = -1; // Connection reset: treat like a disconnect
+        }
+        boolean keptUp = decode(producer);
+        if (read < 0) {
+            // Records that could not be queued before the disconnect are dropped
+            disconnect(producer);
+        } else if (!keptUp) {
+            pause(producer);
+        }
+    }
+
+    /**
+     * Queue every complete record in the producer's buffer.
+     * Returns false if the queue filled up before all records were queued.
+     */
+    private boolean decode(Producer producer) {
+        ByteBuffer buffer = producer.buffer;
+        buffer.flip();
+        if (coalescingBuffer != null) {
+            // Coalescing never fills up, so producers are never paused
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int stopId = buffer.getInt();
+                int crowdCount = buffer.getInt();
+                int secondsOfDay = buffer.getInt();
+                if (stopId == END_OF_CYCLE) {
+                    producerEndedCycle(producer);
+                } else {
+                    producerActive(producer);
+                    coalescingBuffer.put(stopId, crowdCount, secondsOfDay);
+                }
+            }
+            buffer.compact();
+            return true;
+        }
+        // A cycle end that did not fit goes first, so no record overtakes it
+        boolean keptUp = !cycleEndPending || queueCycleEnd();
+        while (keptUp && buffer.remaining() >= RECORD_SIZE) {
+            int position = buffer.position();
+            int stopId = buffer.getInt(position);
+            int secondsOfDay = buffer.getInt(position + 8);
+            if (stopId == END_OF_CYCLE) {
+                producerEndedCycle(producer);
+                keptUp = !cycleEndPending;
+            } else if (!inCycle(producer, secondsOfDay) || cycleEndPending
+                       || !queue.offer(stopId, buffer.getInt(position + 4), secondsOfDay)) {
+                keptUp = false; // Held until the cycle ends, or until the queue has room
+                break;
+            }
+            buffer.position(position + RECORD_SIZE);
+        }
+        buffer.compact();
+        return keptUp;
+    }
+
+    /**
+     * Whether a producer's record belongs to the current cycle. A record timestamped after
+     * the producer's earlier ones in the cycle ends the cycle for that producer, and like
+     * any record of a producer that has ended the cycle, it waits for the next one.
+     */
+    private boolean inCycle(Producer producer, int secondsOfDay) {
+        if (producer.endedGeneration == cycleGeneration) {
+            return false;
+        }
+        if (producer.activeGeneration == cycleGeneration) {
+            if (DataReader.timeAfter(producer.cycleTimestamp, secondsOfDay) <= producer.cycleTimestamp) {
+                return true;
+            }
+            producerEndedCycle(producer);
+            if (producer.endedGeneration == cycleGeneration) {
+                return false; // The others have not ended the cycle yet
+            }
+        }
+        producerActive(producer);
+        producer.cycleTimestamp = secondsOfDay;
+        return true;
+    }
+
+    /**
+     * Count a producer as taking part in the current cycle.
+     */
+    private void producerActive(Producer producer) {
+        if (producer.activeGeneration != cycleGeneration) {
+            if (producer.endedGeneration == cycleGeneration - 1) {
+                producersExpected--;
+            }
+            producer.activeGeneration = cycleGeneration;
+            producersActive++;
+        }
+    }
+
+    /**
+     * Count a producer's end of the cycle (a producer's further ends of the same cycle are
+     * ignored), ending the cycle if every producer taking part has ended it.
+     */
+    private void producerEndedCycle(Producer producer) {
+        producerActive(producer);
+        if (producer.endedGeneration != cycleGeneration) {
+            producer.endedGeneration = cycleGeneration;
+            if (producersEnded++ == 0) {
+                cycleEndDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CYCLE_END_TIMEOUT_MILLIS);
+            }
+            endCycleIfAllEnded();
+        }
+    }
+
+    private void endCycleIfAllEnded() {
+        if (producersEnded > 0 && producersEnded == producersActive && producersExpected == 0) {
+            endCycle();
+        }
+    }
+
+    /**
+     * End a cycle some producer has ended once the others have had CYCLE_END_TIMEOUT_MILLIS.
+     */
+    private void endCycleIfOverdue() {
+        if (producersEnded > 0 && System.nanoTime() - cycleEndDeadline >= 0) {
+            endCycle();
+        }
+    }
+
+    private void endCycle() {
+        cycleGeneration++;
+        producersExpected = producersEnded - producersLeft; // Producers that end a cycle are waited for in the next
+        producersActive = 0;
+        producersEnded = 0;
+        producersLeft = 0;
+        if (coalescingBuffer != null) {
+            cycleRequested = true;
+            LockSupport.unpark(schedulerThread);
+        } else {
+            cycleEndPending = true;
+            queueCycleEnd();
+        }
+    }
+
+    /**
+     * Queue the pending cycle end. Returns false if the queue is still full.
+     */
+    private boolean queueCycleEnd() {
+        if (queue.offer(END_OF_CYCLE, 0, 0)) {
+            cycleEndPending = false;
+        }
+        return !cycleEndPending;
+    }
+
+    private void pause(Producer producer) {
+        producer.key.interestOps(0);
+        pausedProducers.add(producer);
+    }
+
+    private void resumePausedProducers() {
+        if (cycleEndPending && !queueCycleEnd()) {
+            return;
+        }
+        int count = pausedProducers.size();
+        for (int i = 0; i < count && queue.remainingCapacity() > 0; i++) {
+            Producer producer = pausedProducers.poll();
+            if (decode(producer)) {
+                producer.key.interestOps(SelectionKey.OP_READ);
+            } else {
+                pausedProducers.add(producer);
+            }
+        }
+    }
+
+    private void disconnect(Producer producer) {
+        producer.key.cancel();
+        pausedProducers.remove(producer);
+        try {
+            producer.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        connectedProducers--;
+        if (producer.activeGeneration == cycleGeneration) {
+            // It has nothing more to send in this cycle, and is not waited for in the next
+            producersLeft++;
+            producerEndedCycle(producer);
+        } else if (producer.endedGeneration == cycleGeneration - 1) {
+            producersExpected--;
+            endCycleIfAllEnded(); // The producers still connected may all have ended the cycle
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        serverChannel.close();
+        if (socketPath != null) {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+}
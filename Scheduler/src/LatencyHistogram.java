@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, cheap enough to record every cycle.
+ *
+ * Values below 32ns get a bucket each; above that, every power of two is split into 16
+ * buckets, so a percentile is never off by more than about 6%. Recording is a few shifts
+ * and array updates, allocates nothing and never blocks. One thread records; any thread
+ * (e.g. JMX) may read, seeing a slightly stale but consistent-enough view.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2; // Values below this have exact buckets
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong last = new AtomicLong();
+
+    static int bucketOf(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos); // >= LINEAR_BITS
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Record one latency. Must only be called from one thread at a time.
+     */
+    public void record(long nanos) {
+        int bucket = bucketOf(nanos);
+        buckets.lazySet(bucket, buckets.get(bucket) + 1);
+        total.lazySet(total.get() + nanos);
+        if (nanos > max.get()) {
+            max.lazySet(nanos);
+        }
+        last.lazySet(nanos);
+        count.set(count.get() + 1); // Publishes the updates above
+    }
+
+    /**
+     * Latency at the given quantile (0..1) in nanoseconds, as the upper bound of its bucket
+     * (capped at the largest value seen). 0 if nothing has been recorded.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * recorded));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getLastMillis() {
+        return millis(last.get());
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : millis(total.get() / recorded);
+    }
+
+    @Override
+    public double getP50Millis() {
+        return millis(getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return millis(getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return millis(max.get());
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * JMX view of a LatencyHistogram. All times are in milliseconds.
+ */
+public interface LatencyHistogramMBean {
+    long getCount();
+
+    double getLastMillis();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Load-test driver: generates a city-scale network and demand trace, replays the trace
+ * through a headless Scheduler as fast as possible and reports throughput and per-cycle
+ * latency.
+ *
+ * Usage: java LoadTest [options]
+ *   --seed <n>                 random seed (default 1)
+ *   --routes <n>               number of routes (default 200)
+ *   --stops-per-route <n>      stops on each route (default 30)
+ *   --shared <fraction>        chance a route position is a shared hub stop (default 0.2)
+ *   --vehicles-per-route <n>   initial vehicles on each route (default 10)
+ *   --cycles <n>               cycles in the trace (default 300)
+ *   --cycle-seconds <n>        seconds between cycles (default 20)
+ *   --surges <probability>     chance per stop per cycle of a crowd surge (default 0.002)
+ *   --format <binary | text>   trace format to replay (default binary)
+ *   --trace <file>             keep the trace in this file instead of a temporary one
+ *   --parallel <threads>       run each route's cycle work on this many threads (default 1)
+ *   --dwell-cycles <n>         each vehicle stays 1..n cycles at a stop (default 1)
+ *   --travel-cycles <n>        each vehicle takes 1..n cycles between stops (default 1)
+ *   --history <n>              keep the last n counts of every stop off the heap (default off)
+ *
+ * The trace starts at 06:30 with peaks at 08:00 and 17:30.
+ */
+public class LoadTest {
+    private static final int START_SECONDS_OF_DAY = 6 * 3600 + 30 * 60;
+
+    private final Scheduler scheduler;
+    private long[] cycleNanos = new long[1024];
+    private int cycles = 0;
+    private long records = 0;
+
+    private LoadTest(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    private void endCycle() {
+        long start = System.nanoTime();
+        scheduler.endCycle();
+        long elapsed = System.nanoTime() - start;
+        if (cycles == cycleNanos.length) {
+            cycleNanos = Arrays.copyOf(cycleNanos, cycles * 2);
+        }
+        cycleNanos[cycles++] = elapsed;
+    }
+
+    /**
+     * Replay a binary trace, cycling on its END_OF_CYCLE records.
+     */
+    private void replayBinary(Path trace) throws IOException {
+        try (FileChannel channel = FileChannel.open(trace, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean pending = false; // Records received since the last END_OF_CYCLE
+            long chunk = (long) IngestServer.RECORD_SIZE * (1 << 26); // Whole records, under 1 GB per mapping
+            for (long offset = 0; offset < size; offset += chunk) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunk, size - offset));
+                while (buffer.remaining() >= IngestServer.RECORD_SIZE) {
+                    int stopId = buffer.getInt();
+                    int crowdCount = buffer.getInt();
+                    int secondsOfDay = buffer.getInt();
+                    if (stopId == IngestServer.END_OF_CYCLE) {
+                        endCycle();
+                        pending = false;
+                    } else {
+                        scheduler.acceptRecord(stopId, crowdCount, secondsOfDay);
+                        records++;
+                        pending = true;
+                    }
+                }
+            }
+            if (pending) {
+                endCycle(); // Trace did not end with END_OF_CYCLE
+            }
+        }
+    }
+
+    /**
+     * Replay a data file format trace, cycling when the timestamp changes
+     * (as Scheduler.startScheduling does, but with each cycle timed).
+     */
+    private void replayText(Path trace) throws IOException {
+        int timestamp = -1;
+        try (DataReader.RecordCursor cursor = new DataReader(trace.toString()).openCursor()) {
+            DataReader.CountRecord record = cursor.getRecord();
+            while (cursor.next()) {
+                if (timestamp != -1 && record.getSecondsOfDay() != timestamp) {
+                    endCycle();
+                }
+                timestamp = record.getSecondsOfDay();
+                scheduler.acceptRecord(record.getStopId(), record.getCrowdCount(), timestamp);
+                records++;
+            }
+        }
+        if (timestamp != -1) {
+            endCycle();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private void printReport(long totalNanos) {
+        long[] sorted = Arrays.copyOf(cycleNanos, cycles);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long nanos : sorted) {
+            sum += nanos;
+        }
+        double seconds = totalNanos / 1e9;
+        System.out.printf("Replayed %d cycles (%d records) in %.1f ms%n", cycles, records, millis(totalNanos));
+        System.out.printf("Throughput: %.1f cycles/sec, %.0f records/sec%n", cycles / seconds, records / seconds);
+        if (cycles > 0) {
+            System.out.printf("Cycle latency (ms): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                millis(sum / cycles), millis(percentile(sorted, 0.5)), millis(percentile(sorted, 0.9)),
+                millis(percentile(sorted, 0.99)), millis(sorted[cycles - 1]));
+        }
+        SchedulerMetrics metrics = scheduler.getMetrics();
+        printStage("updateStopCounts", metrics.getUpdateStopCountsLatency());
+        printStage("deploymentCheck", metrics.getDeploymentCheckLatency());
+        printStage("removalCheck", metrics.getRemovalCheckLatency());
+        System.out.println("Decisions: " + metrics.getDeployments() + " deployments, " + metrics.getRemovals() + " removals, "
+            + metrics.getRetiredVehicles() + " retired, " + metrics.getThresholdBreaches() + " threshold breaches");
+        System.out.println("Final fleet: " + scheduler.getVehicles().size() + " active, "
+            + scheduler.getScheduledVehicles().size() + " scheduled");
+    }
+
+    private static void printStage(String stage, LatencyHistogram histogram) {
+        System.out.printf("  %-17s p50 %.3f, p99 %.3f, max %.3f ms%n",
+            stage, histogram.getP50Millis(), histogram.getP99Millis(), histogram.getMaxMillis());
+    }
+
+    private static int sharedStopCount(NetworkGenerator network) {
+        Map<Stop, Integer> routesPerStop = new HashMap<>();
+        for (Route route : network.getRoutes()) {
+            for (Stop stop : route.getStops()) {
+                routesPerStop.merge(stop, 1, Integer::sum);
+            }
+        }
+        int shared = 0;
+        for (int count : routesPerStop.values()) {
+            if (count > 1) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    public static void main(String[] args) {
+        long seed = 1;
+        int routes = 200;
+        int stopsPerRoute = 30;
+        double shared = 0.2;
+        int vehiclesPerRoute = 10;
+        int cycleCount = 300;
+        int cycleSeconds = 20;
+        double surges = 0.002;
+        String format = "binary";
+        String tracePath = null;
+        int parallelism = 1;
+        int dwellCycles = 1;
+        int travelCycles = 1;
+        int historySlots = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--routes":
+                    routes = Integer.parseInt(args[++i]);
+                    break;
+                case "--stops-per-route":
+                    stopsPerRoute = Integer.parseInt(args[++i]);
+                    break;
+                case "--shared":
+                    shared = Double.parseDouble(args[++i]);
+                    break;
+                case "--vehicles-per-route":
+                    vehiclesPerRoute = Integer.parseInt(args[++i]);
+                    break;
+                case "--cycles":
+                    cycleCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--cycle-seconds":
+                    cycleSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--surges":
+                    surges = Double.parseDouble(args[++i]);
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--trace":
+                    tracePath = args[++i];
+                    break;
+                case "--parallel":
+                    parallelism = Integer.parseInt(args[++i]);
+                    break;
+                case "--dwell-cycles":
+                    dwellCycles = Integer.parseInt(args[++i]);
+                    break;
+                case "--travel-cycles":
+                    travelCycles = Integer.parseInt(args[++i]);
+                    break;
+                case "--history":
+                    historySlots = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+        boolean binary = format.equals("binary");
+        if (!binary && !format.equals("text")) {
+            System.err.println("Unknown trace format: " + format);
+            return;
+        }
+
+        NetworkGenerator network = new NetworkGenerator(seed, routes, stopsPerRoute, shared);
+        DemandGenerator demand = new DemandGenerator(seed, network.getStops(), START_SECONDS_OF_DAY, cycleSeconds, cycleCount);
+        demand.addPeak(8 * 3600, 45 * 60, 3.0);
+        demand.addPeak(17 * 3600 + 30 * 60, 60 * 60, 2.5);
+        demand.setSurges(surges, 30, 0.3);
+
+        try {
+            Path trace;
+            if (tracePath != null) {
+                trace = Path.of(tracePath);
+            } else {
+                trace = Files.createTempFile("loadtest", binary ? ".bin" : ".txt");
+                trace.toFile().deleteOnExit();
+            }
+            if (binary) {
+                demand.writeBinary(trace);
+            } else {
+                demand.writeText(trace);
+            }
+
+            Scheduler scheduler = new Scheduler(trace.toString());
+            scheduler.setHeadless(true);
+            scheduler.setParallelism(parallelism);
+            network.populate(scheduler, vehiclesPerRoute);
+            Random timings = new Random(seed);
+            for (Vehicle vehicle : scheduler.getVehicles()) {
+                vehicle.setDwellCycles(1 + timings.nextInt(dwellCycles));
+                vehicle.setTravelCycles(1 + timings.nextInt(travelCycles));
+            }
+            if (historySlots > 0) {
+                scheduler.setStopHistory(new StopHistory(scheduler.getStopRegistry().getOrdinals(), historySlots));
+            }
+            System.out.println("Network: " + routes + " routes, " + network.getStops().size() + " stops ("
+                + sharedStopCount(network) + " shared), " + scheduler.getVehicles().size() + " vehicles");
+            System.out.printf("Trace: %d cycles, %s format, %.1f MB%n", cycleCount, format, Files.size(trace) / 1e6);
+
+            LoadTest loadTest = new LoadTest(scheduler);
+            long start = System.nanoTime();
+            if (binary) {
+                loadTest.replayBinary(trace);
+            } else {
+                loadTest.replayText(trace);
+            }
+            loadTest.printReport(System.nanoTime() - start);
+        } catch (IOException e) {
+            System.err.println("Error writing or replaying trace: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic generator of large synthetic networks for load testing.
+ *
+ * Builds routeCount routes of stopsPerRoute stops each. Some stops are hubs shared by
+ * several routes (interchanges, city centre stops): each route position is a hub with
+ * probability sharedStopFraction, picked from a pool of hubs. The same seed always gives
+ * the same network, stop ids and fleet.
+ */
+public class NetworkGenerator {
+    private static final int VEHICLE_CAPACITY = 50;
+
+    private final long seed;
+    private final int routeCount;
+    private final int stopsPerRoute;
+    private final double sharedStopFraction;
+    private final List<Route> routes = new ArrayList<>();
+    private final List<Stop> stops = new ArrayList<>(); // Every distinct stop, in id order
+
+    public NetworkGenerator(long seed, int routeCount, int stopsPerRoute, double sharedStopFraction) {
+        if (routeCount < 1 || stopsPerRoute < 2) {
+            throw new IllegalArgumentException("Need at least one route of at least two stops");
+        }
+        this.seed = seed;
+        this.routeCount = routeCount;
+        this.stopsPerRoute = stopsPerRoute;
+        this.sharedStopFraction = sharedStopFraction;
+        generate();
+    }
+
+    private void generate() {
+        Random random = new Random(seed);
+
+        // Enough hubs that a hub is on a handful of routes on average
+        int hubCount = (int) Math.ceil(routeCount * stopsPerRoute * sharedStopFraction / 4);
+        List<Stop> hubs = new ArrayList<>();
+        for (int h = 0; h < hubCount; h++) {
+            hubs.add(newStop("Hub " + (h + 1)));
+        }
+
+        for (int r = 0; r < routeCount; r++) {
+            List<Stop> routeStops = new ArrayList<>();
+            Set<Stop> used = new HashSet<>(); // A route never visits the same stop twice
+            for (int position = 0; position < stopsPerRoute; position++) {
+                Stop stop = null;
+                if (!hubs.isEmpty() && random.nextDouble() < sharedStopFraction) {
+                    Stop hub = hubs.get(random.nextInt(hubs.size()));
+                    if (!used.contains(hub)) {
+                        stop = hub;
+                    }
+                }
+                if (stop == null) {
+                    stop = newStop("R" + (r + 1) + " Stop " + (position + 1));
+                }
+                used.add(stop);
+                routeStops.add(stop);
+            }
+            routes.add(new Route("R" + (r + 1), "Route " + (r + 1), routeStops));
+        }
+
+        // Hubs no route ended up using would only add dead weight to traces
+        Set<Stop> onRoutes = new HashSet<>();
+        for (Route route : routes) {
+            onRoutes.addAll(route.getStops());
+        }
+        stops.retainAll(onRoutes);
+    }
+
+    private Stop newStop(String name) {
+        Stop stop = new Stop(stops.size() + 1, name);
+        stops.add(stop);
+        return stop;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Every distinct stop in the network, each listed once even if shared by several routes.
+     */
+    public List<Stop> getStops() {
+        return stops;
+    }
+
+    /**
+     * Add the routes to the scheduler, with vehiclesPerRoute vehicles spread evenly along
+     * each route, all PRESENT at their stops and empty.
+     */
+    public void populate(Scheduler scheduler, int vehiclesPerRoute) {
+        int nextVehicleId = 1;
+        for (Route route : routes) {
+            scheduler.addRoute(route);
+            for (int v = 0; v < vehiclesPerRoute; v++) {
+                int position = (int) ((long) v * route.getLastPosition() / vehiclesPerRoute);
+                scheduler.addVehicle(new Vehicle("V" + nextVehicleId++, route, VEHICLE_CAPACITY, route.getStop(position)));
+            }
+        }
+        scheduler.nextVehicleId = nextVehicleId;
+    }
+}
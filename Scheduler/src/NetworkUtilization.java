@@ -0,0 +1,118 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals for the removal check, for the whole network and for each route, kept up to date
+ * as counts and the fleet change instead of being summed over every stop and vehicle each
+ * cycle:
+ * - people waiting, summed over the stops of every route (a stop shared by several routes
+ *   counts once per route, as it did when the routes were summed stop by stop)
+ * - capacity of the active vehicles
+ *
+ * Stop count changes arrive through a StopListener per route; the scheduler reports
+ * vehicles joining and leaving. Every update and every read is O(1). Stop counts may
+ * change on several threads at once when routes update their stops in parallel.
+ */
+public class NetworkUtilization {
+    private final Map<Route, RouteLoad> routeLoads = new IdentityHashMap<>();
+    private final LongAdder waiting = new LongAdder();
+    private long activeCapacity = 0;
+
+    /**
+     * One route's totals. Registered once per stop on the route, so a stop shared by
+     * several routes reports its changes to each of them.
+     */
+    private class RouteLoad implements StopListener {
+        private final LongAdder waiting = new LongAdder();
+        private long activeCapacity = 0;
+
+        @Override
+        public void peopleCountChanged(Stop stop, int previousCount) {
+            int change = stop.getPeopleCount() - previousCount;
+            waiting.add(change);
+            NetworkUtilization.this.waiting.add(change);
+        }
+    }
+
+    /**
+     * Start counting a route's stops.
+     */
+    public void addRoute(Route route) {
+        if (routeLoads.containsKey(route)) {
+            return;
+        }
+        RouteLoad load = new RouteLoad();
+        routeLoads.put(route, load);
+        for (Stop stop : route.getStops()) {
+            stop.addListener(load);
+            load.waiting.add(stop.getPeopleCount());
+            waiting.add(stop.getPeopleCount());
+        }
+    }
+
+    public void vehicleAdded(Vehicle vehicle) {
+        activeCapacity += vehicle.getCapacity();
+        RouteLoad load = routeLoads.get(vehicle.getRoute());
+        if (load != null) {
+            load.activeCapacity += vehicle.getCapacity();
+        }
+    }
+
+    public void vehicleRemoved(Vehicle vehicle) {
+        activeCapacity -= vehicle.getCapacity();
+        RouteLoad load = routeLoads.get(vehicle.getRoute());
+        if (load != null) {
+            load.activeCapacity -= vehicle.getCapacity();
+        }
+    }
+
+    /**
+     * Forget every active vehicle (e.g. before state is restored).
+     */
+    public void clearVehicles() {
+        activeCapacity = 0;
+        for (RouteLoad load : routeLoads.values()) {
+            load.activeCapacity = 0;
+        }
+    }
+
+    public long getWaiting() {
+        return waiting.sum();
+    }
+
+    public long getActiveCapacity() {
+        return activeCapacity;
+    }
+
+    /**
+     * People waiting per unit of active capacity, or NaN if there is no active capacity.
+     */
+    public double getUtilization() {
+        return activeCapacity == 0 ? Double.NaN : (double) waiting.sum() / activeCapacity;
+    }
+
+    /**
+     * People waiting at a route's stops (0 for a route that was never added).
+     */
+    public long getWaiting(Route route) {
+        RouteLoad load = routeLoads.get(route);
+        return load == null ? 0 : load.waiting.sum();
+    }
+
+    /**
+     * Capacity of the active vehicles on a route.
+     */
+    public long getActiveCapacity(Route route) {
+        RouteLoad load = routeLoads.get(route);
+        return load == null ? 0 : load.activeCapacity;
+    }
+
+    /**
+     * People waiting at a route's stops per unit of its active capacity, or NaN if it has none.
+     */
+    public double getUtilization(Route route) {
+        long capacity = getActiveCapacity(route);
+        return capacity == 0 ? Double.NaN : (double) getWaiting(route) / capacity;
+    }
+}
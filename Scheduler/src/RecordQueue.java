@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded hand-off of count records from the ingest thread to the scheduler thread.
+ *
+ * Single producer, single consumer ring buffer of primitive ints (three per record),
+ * so passing a record allocates nothing. offer() never blocks: when the ring is full it
+ * returns false and the producer decides how to back off.
+ */
+public class RecordQueue {
+    /**
+     * Receives drained records on the consumer thread.
+     */
+    public interface RecordConsumer {
+        void accept(int stopId, int crowdCount, int secondsOfDay);
+    }
+
+    private final int[] ring;
+    private final int mask; // Capacity in records - 1 (capacity is a power of two)
+    private final AtomicLong head = new AtomicLong(); // Next record to read (written by consumer)
+    private final AtomicLong tail = new AtomicLong(); // Next record to write (written by producer)
+    private volatile Thread waitingConsumer; // Set while the consumer is parked waiting for records
+
+    public RecordQueue(int capacity) {
+        int records = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new int[records * 3];
+        this.mask = records - 1;
+    }
+
+    /**
+     * Add a record, or return false without blocking if the queue is full.
+     * Must only be called from the producer thread.
+     */
+    public boolean offer(int stopId, int crowdCount, int secondsOfDay) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false;
+        }
+        int slot = (int) (t & mask) * 3;
+        ring[slot] = stopId;
+        ring[slot + 1] = crowdCount;
+        ring[slot + 2] = secondsOfDay;
+        tail.lazySet(t + 1); // Publishes the slot writes to the consumer
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Hand every queued record to the consumer. Must only be called from the consumer thread.
+     * Returns the number of records drained.
+     */
+    public int drain(RecordConsumer consumer) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            int slot = (int) (i & mask) * 3;
+            consumer.accept(ring[slot], ring[slot + 1], ring[slot + 2]);
+        }
+        head.lazySet(t); // Frees the slots for the producer
+        return (int) (t - h);
+    }
+
+    /**
+     * Wait until records are available or the timeout passes.
+     * Must only be called from the consumer thread.
+     */
+    public void awaitRecords(long timeoutNanos) {
+        if (!isEmpty()) {
+            return;
+        }
+        waitingConsumer = Thread.currentThread();
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        waitingConsumer = null;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Number of records that can be offered before the queue is full.
+     */
+    public int remainingCapacity() {
+        return (int) (mask + 1 - (tail.get() - head.get()));
+    }
+}
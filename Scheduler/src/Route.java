@@ -1,27 +1,97 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * A route is an immutable, indexed sequence of stops.
+ * Each stop has a dense position (0 .. size-1) along the route, and positions can be
+ * looked up by stop id in O(1) instead of scanning the stop list.
+ * The people waiting along the route can be queried by range through getDemand().
+ */
 public class Route {
-    private String routeId;
-    private String routeName;
-    private List<Stop> stops;
-    private double deploymentThreshold; // Threshold multiplier for deployment (default 1.2 = 120% of capacity)
+    public static final double DEFAULT_DEPLOYMENT_THRESHOLD = 1.2; // 20% above capacity triggers deployment
 
-    public Route(String routeId, String routeName) {
-        this.routeId = routeId;
-        this.routeName = routeName;
-        this.stops = new ArrayList<>();
-        this.deploymentThreshold = 1.2; // Default: 20% above capacity triggers deployment
+    private final String routeId;
+    private final String routeName;
+    private final List<Stop> stops; // Unmodifiable, in route order
+    private final Map<Integer, Integer> positionsById; // Stop id -> position along the route
+    private final int lastPosition; // Position of the last stop (-1 for an empty route)
+    private final double deploymentThreshold; // Threshold multiplier for deployment (default 1.2 = 120% of capacity)
+    private final RouteDemand demand; // Range sums and maxima over the stops' people counts
+
+    public Route(String routeId, String routeName, List<Stop> stops) {
+        this(routeId, routeName, stops, DEFAULT_DEPLOYMENT_THRESHOLD);
     }
 
-    public void addStop(Stop stop) {
-        stops.add(stop);
+    /**
+     * A route whose vehicles trigger deployment when predicted to carry more than
+     * deploymentThreshold times their capacity.
+     */
+    public Route(String routeId, String routeName, List<Stop> stops, double deploymentThreshold) {
+        if (deploymentThreshold <= 0) {
+            throw new IllegalArgumentException("Deployment threshold must be positive: " + deploymentThreshold);
+        }
+        this.routeId = routeId;
+        this.routeName = routeName;
+        this.stops = Collections.unmodifiableList(new ArrayList<>(stops));
+        this.positionsById = new HashMap<>();
+        for (int i = 0; i < this.stops.size(); i++) {
+            Integer previous = positionsById.put(this.stops.get(i).getId(), i);
+            if (previous != null) {
+                throw new IllegalArgumentException("Stop " + this.stops.get(i).getId() +
+                                                   " appears more than once on route " + routeId);
+            }
+        }
+        this.lastPosition = this.stops.size() - 1;
+        this.deploymentThreshold = deploymentThreshold;
+        this.demand = new RouteDemand(this); // Follows the stops' counts from now on
     }
 
     public List<Stop> getStops() {
         return stops;
     }
 
+    public int size() {
+        return stops.size();
+    }
+
+    public Stop getStop(int position) {
+        return stops.get(position);
+    }
+
+    /**
+     * Position of a stop along the route, or -1 if the stop is not on this route.
+     */
+    public int indexOf(Stop stop) {
+        int position = positionOf(stop.getId());
+        return position >= 0 && stops.get(position) == stop ? position : -1;
+    }
+
+    /**
+     * Position of the stop with the given id, or -1 if no such stop is on this route.
+     */
+    public int positionOf(int stopId) {
+        Integer position = positionsById.get(stopId);
+        return position == null ? -1 : position;
+    }
+
+    public int getLastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * Check if the stop at a position is the last stop of the route.
+     */
+    public boolean isLastStop(int position) {
+        return position == lastPosition;
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
     public String getRouteName() {
         return routeName;
     }
@@ -30,5 +100,11 @@ public class Route {
         return deploymentThreshold;
     }
 
-}
+    /**
+     * People waiting along the route, by position range. Safe to query from any thread.
+     */
+    public RouteDemand getDemand() {
+        return demand;
+    }
 
+}
@@ -0,0 +1,174 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * People waiting along one route, indexed for range queries: "how many people are
+ * waiting between stop i and stop j" and "what is the busiest stop in that range" in
+ * O(log S) for a route of S stops.
+ *
+ * Kept as a segment tree over the stops' people counts (a Fenwick tree cannot answer
+ * range maxima once counts go down). Each stop's count is pushed into the tree by a
+ * StopListener whenever Stop.updatePeopleCount changes it, so the tree always matches
+ * the stops.
+ *
+ * Queries may come from any thread (e.g. a dashboard) while the scheduler updates the
+ * counts. Reads are optimistic and only retry under a read lock if an update ran at the
+ * same time, so polling never blocks the scheduling thread for long.
+ */
+public class RouteDemand {
+    private final int stopCount;
+    private final int leaves; // Power of two >= stopCount; leaf i is node leaves + i
+    // Node n's total count is at 2n and its highest count at 2n + 1, so an update touches
+    // one cache line per level. Node 1 is the root.
+    private final int[] tree;
+    private final StampedLock lock = new StampedLock();
+
+    RouteDemand(Route route) {
+        this.stopCount = route.size();
+        int size = 1;
+        while (size < stopCount) {
+            size <<= 1;
+        }
+        this.leaves = size;
+        this.tree = new int[4 * size];
+        for (int position = 0; position < stopCount; position++) {
+            Stop stop = route.getStop(position);
+            int node = leaves + position;
+            tree[2 * node] = stop.getPeopleCount();
+            tree[2 * node + 1] = stop.getPeopleCount();
+            stop.addListener((changed, previousCount) -> set(node, changed.getPeopleCount()));
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            pull(node);
+        }
+    }
+
+    private void pull(int node) {
+        int left = 4 * node; // Left child's sum; its max follows, then the right child's pair
+        tree[2 * node] = tree[left] + tree[left + 2];
+        tree[2 * node + 1] = Math.max(tree[left + 1], tree[left + 3]);
+    }
+
+    private void set(int leaf, int count) {
+        long stamp = lock.writeLock();
+        try {
+            tree[2 * leaf] = count;
+            tree[2 * leaf + 1] = count;
+            for (int node = leaf >>> 1; node > 0; node >>>= 1) {
+                pull(node);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * People waiting at the stops from position from (inclusive) to position to (exclusive).
+     */
+    public long sum(int from, int to) {
+        checkRange(from, to);
+        long stamp = lock.tryOptimisticRead();
+        long sum = sumOf(from, to);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                sum = sumOf(from, to);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Highest count at any stop from position from (inclusive) to position to (exclusive),
+     * or 0 for an empty range.
+     */
+    public int max(int from, int to) {
+        checkRange(from, to);
+        long stamp = lock.tryOptimisticRead();
+        int max = maxOf(from, to);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                max = maxOf(from, to);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * People waiting along the whole route.
+     */
+    public long total() {
+        return sum(0, stopCount);
+    }
+
+    /**
+     * People waiting at the stop at a position.
+     */
+    public int get(int position) {
+        checkRange(position, position + 1);
+        return tree[2 * (leaves + position)]; // A single int read is never torn
+    }
+
+    /**
+     * Copy every stop's count into counts[0 .. size-1] as one consistent snapshot,
+     * e.g. for a full route dump.
+     */
+    public void copyCounts(int[] counts) {
+        long stamp = lock.tryOptimisticRead();
+        copyLeaves(counts);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copyLeaves(counts);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private void copyLeaves(int[] counts) {
+        for (int position = 0, index = 2 * leaves; position < stopCount; position++, index += 2) {
+            counts[position] = tree[index];
+        }
+    }
+
+    public int size() {
+        return stopCount;
+    }
+
+    private long sumOf(int from, int to) {
+        long sum = 0;
+        for (int left = from + leaves, right = to + leaves; left < right; left >>>= 1, right >>>= 1) {
+            if ((left & 1) != 0) {
+                sum += tree[2 * left++];
+            }
+            if ((right & 1) != 0) {
+                sum += tree[2 * --right];
+            }
+        }
+        return sum;
+    }
+
+    private int maxOf(int from, int to) {
+        int max = 0;
+        for (int left = from + leaves, right = to + leaves; left < right; left >>>= 1, right >>>= 1) {
+            if ((left & 1) != 0) {
+                max = Math.max(max, tree[2 * left++ + 1]);
+            }
+            if ((right & 1) != 0) {
+                max = Math.max(max, tree[2 * --right + 1]);
+            }
+        }
+        return max;
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > stopCount || from > to) {
+            throw new IndexOutOfBoundsException("Stop range " + from + ".." + to + " on a route of " + stopCount + " stops");
+        }
+    }
+}
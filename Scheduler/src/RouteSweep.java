@@ -0,0 +1,173 @@
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass prediction engine for one route.
+ *
+ * Walks the vehicles of a route once, from the front of the route to the back,
+ * carrying forward how many waiting passengers the vehicles already visited will
+ * pick up at each stop. Every vehicle then only has to read those running totals
+ * to get its predicted fullness at every stop, instead of rescanning all vehicles
+ * ahead of it for every stop it is asked about.
+ *
+ * The numbers are the same as the original per-(vehicle, stop) prediction:
+ * - a vehicle ahead picks up greedily from the raw stop counts until it is full
+ * - a PRESENT vehicle ahead at a stop also takes from that stop
+ * - at the same stop, only an ARRIVING vehicle has vehicles (PRESENT/DEPARTING) ahead of it
+ */
+public class RouteSweep {
+    private final Route route;
+    private final Vehicle[] vehicles; // Vehicles on this route, front of the route last
+    private final int[][] fullness; // [vehicle][stop index] predicted fullness
+    private Map<Vehicle, Integer> rowIndex; // Built on first lookup by vehicle
+
+    private RouteSweep(Route route, Vehicle[] vehicles, int[][] fullness) {
+        this.route = route;
+        this.vehicles = vehicles;
+        this.fullness = fullness;
+    }
+
+    /**
+     * Run the sweep for one route. Vehicles that are not on the route are ignored.
+     */
+    public static RouteSweep sweep(Route route, List<Vehicle> allVehicles) {
+        return sweep(new RouteVehicleIndex(route, allVehicles));
+    }
+
+    /**
+     * Run the sweep over a route's ordered vehicle index.
+     */
+    public static RouteSweep sweep(RouteVehicleIndex index) {
+        Route route = index.getRoute();
+        int stopCount = route.size();
+        int[] counts = new int[stopCount];
+        route.getDemand().copyCounts(counts); // The stops' counts, without visiting every Stop
+
+        int vehicleCount = index.size();
+        Vehicle[] vehicles = new Vehicle[vehicleCount];
+        for (int slot = 0; slot < vehicleCount; slot++) {
+            vehicles[slot] = index.get(slot);
+        }
+
+        // taken[i] = passengers at stop i that the vehicles swept so far will pick up
+        int[] taken = new int[stopCount];
+        int[][] fullness = new int[vehicleCount][];
+
+        // The index is ordered back to front, so walk it from the last slot.
+        // Vehicles in the same group are not ahead of each other, so all of a group's
+        // rows are computed before any of its pickups are added to taken[]. A group is
+        // either the PRESENT/DEPARTING vehicles at a stop or the ARRIVING vehicles at
+        // a stop; the ARRIVING group comes after (behind) the other one.
+        int groupEnd = vehicleCount - 1;
+        while (groupEnd >= 0) {
+            int group = groupOf(vehicles[groupEnd]);
+            int groupStart = groupEnd;
+            while (groupStart > 0 && groupOf(vehicles[groupStart - 1]) == group) {
+                groupStart--;
+            }
+            for (int v = groupStart; v <= groupEnd; v++) {
+                fullness[v] = predictRow(vehicles[v], vehicles[v].getStopIndex(), counts, taken);
+            }
+            for (int v = groupStart; v <= groupEnd; v++) {
+                addPickups(vehicles[v], vehicles[v].getStopIndex(), counts, taken);
+            }
+            groupEnd = groupStart - 1;
+        }
+
+        return new RouteSweep(route, vehicles, fullness);
+    }
+
+    private static int groupOf(Vehicle vehicle) {
+        return vehicle.getStopIndex() * 2 + (vehicle.getState() == VehicleState.ARRIVING ? 0 : 1);
+    }
+
+    /**
+     * Predicted fullness of a vehicle at every stop of the route, given what the
+     * vehicles ahead of it will already have picked up.
+     * Stops at or before the current position get the fullness at the current stop.
+     */
+    private static int[] predictRow(Vehicle vehicle, int position, int[] counts, int[] taken) {
+        int[] row = new int[counts.length];
+        int predictedCount = vehicle.getPassengerCount();
+
+        // DEPARTING vehicles have already picked up from their current stop
+        if (vehicle.getState() != VehicleState.DEPARTING) {
+            predictedCount += adjustedCount(position, counts, taken);
+        }
+        for (int i = 0; i <= position; i++) {
+            row[i] = predictedCount;
+        }
+        for (int i = position + 1; i < counts.length; i++) {
+            predictedCount += adjustedCount(i, counts, taken);
+            row[i] = predictedCount;
+        }
+        return row;
+    }
+
+    private static int adjustedCount(int stopIndex, int[] counts, int[] taken) {
+        return Math.max(0, counts[stopIndex] - taken[stopIndex]);
+    }
+
+    /**
+     * Add the passengers a vehicle will pick up at its current and later stops.
+     * Pickups at later stops come from the raw stop counts (a vehicle ahead does not
+     * see the vehicles ahead of it), filling up greedily until capacity is reached.
+     */
+    private static void addPickups(Vehicle vehicle, int position, int[] counts, int[] taken) {
+        int capacity = vehicle.getCapacity();
+        int load = vehicle.getPassengerCount();
+
+        // A PRESENT vehicle will pick up from its current stop when it departs.
+        // DEPARTING vehicles are not counted: the stop count already reflects their pickup.
+        if (vehicle.getState() == VehicleState.PRESENT) {
+            taken[position] += Math.min(counts[position], Math.max(0, capacity - load));
+        }
+
+        for (int i = position + 1; i < counts.length; i++) {
+            int remainingCapacity = capacity - load;
+            taken[i] += Math.min(counts[i], Math.max(0, remainingCapacity));
+            load += Math.min(counts[i], remainingCapacity);
+        }
+    }
+
+    /**
+     * Whether the vehicle was part of this sweep.
+     */
+    public boolean contains(Vehicle vehicle) {
+        return rowIndex().containsKey(vehicle);
+    }
+
+    /**
+     * Predicted fullness of a vehicle when it reaches the stop at the given index.
+     * The vehicle must be part of this sweep.
+     */
+    public int getFullness(Vehicle vehicle, int stopIndex) {
+        return fullness[rowIndex().get(vehicle)][stopIndex];
+    }
+
+    private Map<Vehicle, Integer> rowIndex() {
+        if (rowIndex == null) {
+            rowIndex = new IdentityHashMap<>();
+            for (int i = 0; i < vehicles.length; i++) {
+                rowIndex.put(vehicles[i], i);
+            }
+        }
+        return rowIndex;
+    }
+
+    /**
+     * The full vehicle x stop fullness matrix; rows follow getVehicles().
+     */
+    public int[][] getFullnessMatrix() {
+        return fullness;
+    }
+
+    public Vehicle[] getVehicles() {
+        return vehicles;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+}
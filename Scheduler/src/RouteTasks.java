@@ -0,0 +1,52 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs one action per item (typically per route) as fork/join tasks, or inline on the
+ * calling thread when there is no pool. The range is split in halves down to single items,
+ * so a route with many vehicles does not hold up the others. Returns once every action
+ * has finished; their writes are then visible to the caller.
+ */
+final class RouteTasks extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final IntConsumer action;
+
+    private RouteTasks(int from, int to, IntConsumer action) {
+        this.from = from;
+        this.to = to;
+        this.action = action;
+    }
+
+    static <T> void forEach(ForkJoinPool pool, List<T> items, Consumer<? super T> action) {
+        forEachIndex(pool, items.size(), i -> action.accept(items.get(i)));
+    }
+
+    /**
+     * Run action(0) .. action(count - 1).
+     */
+    static void forEachIndex(ForkJoinPool pool, int count, IntConsumer action) {
+        if (pool == null || count < 2) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.invoke(new RouteTasks(0, count, action));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from == 1) {
+            action.accept(from);
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(new RouteTasks(from, middle, action), new RouteTasks(middle, to, action));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The vehicles of one route, ordered by how far along the route they are:
+ * by stop position first, then by stage at the stop (ARRIVING, PRESENT, DEPARTING).
+ *
+ * The vehicles ahead of a vehicle always form a suffix of this order, so a
+ * "vehicles ahead" query is a range of slots found by binary search, with no
+ * filtering of the fleet and no allocation:
+ *
+ *     for (int i = index.aheadStart(vehicle); i < index.size(); i++) { index.get(i) ... }
+ *
+ * The order reflects vehicle positions as of the last add() or reorder() call.
+ */
+public class RouteVehicleIndex {
+    private final Route route;
+    private Vehicle[] vehicles; // Ordered by key
+    private int[] keys; // Sort key of each slot when it was last ordered
+    private int size;
+
+    public RouteVehicleIndex(Route route) {
+        this.route = route;
+        this.vehicles = new Vehicle[8];
+        this.keys = new int[8];
+        this.size = 0;
+    }
+
+    /**
+     * Build an index from the vehicles in a list that are on the given route.
+     */
+    public RouteVehicleIndex(Route route, List<Vehicle> allVehicles) {
+        this(route);
+        for (Vehicle vehicle : allVehicles) {
+            if (vehicle.getRoute() == route) {
+                ensureCapacity(size + 1);
+                vehicles[size++] = vehicle;
+            }
+        }
+        Arrays.sort(vehicles, 0, size, Comparator.comparingInt(RouteVehicleIndex::keyOf));
+        for (int i = 0; i < size; i++) {
+            keys[i] = keyOf(vehicles[i]);
+        }
+    }
+
+    /**
+     * Sort key: stop position, then stage at the stop (VehicleState is declared in stage order).
+     */
+    static int keyOf(int position, VehicleState state) {
+        return position * 3 + state.ordinal();
+    }
+
+    static int keyOf(Vehicle vehicle) {
+        return keyOf(vehicle.getStopIndex(), vehicle.getState());
+    }
+
+    public void add(Vehicle vehicle) {
+        ensureCapacity(size + 1);
+        int key = keyOf(vehicle);
+        int slot = lowerBound(key + 1); // After any vehicles with the same key
+        System.arraycopy(vehicles, slot, vehicles, slot + 1, size - slot);
+        System.arraycopy(keys, slot, keys, slot + 1, size - slot);
+        vehicles[slot] = vehicle;
+        keys[slot] = key;
+        size++;
+    }
+
+    /**
+     * Remove a vehicle. Its position must not have changed since the last reorder().
+     */
+    public boolean remove(Vehicle vehicle) {
+        int key = keyOf(vehicle);
+        for (int slot = lowerBound(key); slot < size && keys[slot] == key; slot++) {
+            if (vehicles[slot] == vehicle) {
+                System.arraycopy(vehicles, slot + 1, vehicles, slot, size - slot - 1);
+                System.arraycopy(keys, slot + 1, keys, slot, size - slot - 1);
+                vehicles[--size] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restore the order after vehicles have moved or changed state.
+     * Vehicles only ever move forward and most keep their relative order, so an
+     * insertion sort over the nearly sorted slots is close to linear.
+     */
+    public void reorder() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = keyOf(vehicles[i]);
+        }
+        for (int i = 1; i < size; i++) {
+            Vehicle vehicle = vehicles[i];
+            int key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                vehicles[j + 1] = vehicles[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            vehicles[j + 1] = vehicle;
+            keys[j + 1] = key;
+        }
+    }
+
+    /**
+     * First slot of the vehicles ahead of the given vehicle; the vehicles ahead are
+     * the slots from here to size() - 1.
+     * A vehicle is ahead if it is at a later stop, or at the same stop in PRESENT or
+     * DEPARTING state while the given vehicle is ARRIVING.
+     */
+    public int aheadStart(Vehicle vehicle) {
+        int position = vehicle.getStopIndex();
+        if (vehicle.getState() == VehicleState.ARRIVING) {
+            return lowerBound(keyOf(position, VehicleState.PRESENT));
+        }
+        return lowerBound(keyOf(position + 1, VehicleState.ARRIVING));
+    }
+
+    /**
+     * Number of vehicles ahead of the given vehicle.
+     */
+    public int countAhead(Vehicle vehicle) {
+        return size - aheadStart(vehicle);
+    }
+
+    public Vehicle get(int slot) {
+        return vehicles[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * First slot whose key is >= the given key.
+     */
+    private int lowerBound(int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > vehicles.length) {
+            int newLength = Math.max(capacity, vehicles.length * 2);
+            vehicles = Arrays.copyOf(vehicles, newLength);
+            keys = Arrays.copyOf(keys, newLength);
+        }
+    }
+}
@@ -1,7 +1,18 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import javax.management.JMException;
 
 public class Scheduler {
     // ANSI color codes for terminal output
@@ -15,14 +26,41 @@ public class Scheduler {
     private static final String MAGENTA = "\033[35m";
     
     private List<Route> routes;
+    private StopRegistry stopRegistry; // Every stop by id, with the routes and positions serving it
+    private ForkJoinPool pool; // Runs each route's cycle work as its own task, null = all on this thread
     private List<Vehicle> vehicles; // Active vehicles on the route
+    private FleetStore fleet; // Fields of the active vehicles, which are views onto its slots
+    private TimingWheel events; // Each active vehicle's fleet slot, due at its next event's cycle
     private List<Vehicle> scheduledVehicles; // Vehicles scheduled for deployment but not yet active
-    private int removalState = 0; // Tracks removal state: 0 = normal, -1 = removal happened when no scheduled vehicles
+    private Map<Route, RouteVehicleIndex> vehicleIndexes; // Active vehicles of each route, ordered along the route
+    HeadroomQueue headroomQueue; // Each vehicle's minimum headroom, updated for changed routes only (package-private for benchmarks)
+    private NetworkUtilization utilization; // Waiting people and active capacity, kept up to date
+    private StopOrdinals stopOrdinals; // Dense ordinal for every stop id seen in routes or data
+    private Map<Route, Integer> routeOrdinals; // Position of each route in routes
+    private int[] removalState = new int[4]; // By route ordinal: 0 = normal, -1 = removal happened when the route had no scheduled vehicles
     private DataReader dataReader;
-    private Prediction prediction; // Prediction engine for vehicle fullness
-    private int cycleCount = 0; // Track cycle count for 3-stage progression
-    private static final double REMOVAL_THRESHOLD = 0.2; // 20% below average capacity triggers removal
+    private List<String> dataFilePaths; // More than one: read together, merged by timestamp
+    int cycleCount = 0; // Track cycle count for 3-stage progression (package-private for benchmarks)
+    public static final double DEFAULT_REMOVAL_THRESHOLD = 0.2; // 20% below average capacity triggers removal
+    private double removalThreshold = DEFAULT_REMOVAL_THRESHOLD;
     int nextVehicleId = 1; // Package-private for initialization in main
+    private StopCounts cycleCounts; // Counts of the cycle being collected and of the previous cycle
+    private StopTrends stopTrends; // Each stop's smoothed count, spread and slope, with surge and decay signals
+    private StopHistory stopHistory; // Recent counts of every stop, off the heap; null if not kept
+    private int cycleTimestamp = -1; // Seconds of day of the cycle being collected, -1 if none
+    private int processedCycles = 0;
+    private int currentCycleTimestamp = -1; // Seconds of day of the cycle being processed, for decision events
+    private boolean headless = false; // Skip all human-readable output
+    private DecisionLog decisionLog; // Structured decision events, null if not logging
+    private volatile IngestServer liveIngest; // Serving in startLiveIngest, null otherwise
+    private volatile boolean liveIngestStopped; // stopLiveIngest was called
+    private final SchedulerMetrics metrics = new SchedulerMetrics(); // Stage latencies, counters and gauges
+    private int vehiclesExamined = 0; // Work done by the current stage, for JFR events
+    private int predictionEvaluations = 0;
+    private int cycleVehiclesExamined = 0; // Work done by all stages of the current cycle so far
+    private int cyclePredictionEvaluations = 0;
+    private StateStore stateStore; // Snapshots and cycle log for fast restarts, null if not persisting
+    private int resumeAfterCycles = 0; // After a restore: cycles at the start of the data already processed
     
     // Helper methods for colored output
     private String colorize(String text, String color) {
@@ -60,287 +98,744 @@ public class Scheduler {
     public Scheduler(String dataFilePath) {
         this.routes = new ArrayList<>();
         this.vehicles = new ArrayList<>();
+        this.fleet = new FleetStore(64);
+        this.fleet.setListener(this::activeVehicleChanged);
+        this.events = new TimingWheel(cycleCount);
         this.scheduledVehicles = new ArrayList<>();
-        this.removalState = 0;
+        this.vehicleIndexes = new IdentityHashMap<>();
+        this.headroomQueue = new HeadroomQueue(vehicleIndexes);
+        this.utilization = new NetworkUtilization();
+        this.stopOrdinals = new StopOrdinals();
+        this.stopRegistry = new StopRegistry(stopOrdinals);
+        this.cycleCounts = new StopCounts(stopOrdinals);
+        this.stopTrends = new StopTrends(stopOrdinals);
+        this.routeOrdinals = new IdentityHashMap<>();
         this.dataReader = new DataReader(dataFilePath);
-        this.prediction = new Prediction(vehicles);
+        this.dataFilePaths = List.of(dataFilePath);
+    }
+
+    /**
+     * A scheduler reading several data files (at least one), e.g. one per camera, each sorted
+     * by timestamp. startScheduling merges them into cycles without sorting them first.
+     */
+    public Scheduler(List<String> dataFilePaths) {
+        this(dataFilePaths.get(0));
+        this.dataFilePaths = List.copyOf(dataFilePaths);
+    }
+
+    /**
+     * Headless mode skips all human-readable rendering and console output; decisions are
+     * then only visible through the decision log.
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    public void setDecisionLog(DecisionLog decisionLog) {
+        this.decisionLog = decisionLog;
+    }
+
+    /**
+     * Run each route's share of a cycle (stop updates, vehicle transitions, predictions and
+     * report rendering) as fork/join tasks on this many threads; 1 runs everything on the
+     * calling thread. Decisions, events and the report are the same either way: routes'
+     * results are merged in a fixed order on the calling thread.
+     */
+    public void setParallelism(int threads) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Request a removal when the people waiting fall below this share of the active capacity.
+     */
+    public void setRemovalThreshold(double removalThreshold) {
+        if (removalThreshold < 0) {
+            throw new IllegalArgumentException("Removal threshold must not be negative: " + removalThreshold);
+        }
+        this.removalThreshold = removalThreshold;
+    }
+
+    public SchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Log every cycle's input to the store before processing it, and snapshot on its schedule.
+     */
+    public void setStateStore(StateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    public int getProcessedCycles() {
+        return processedCycles;
+    }
+
+    /**
+     * Keep every reported count in the history (built over getStopRegistry().getOrdinals()).
+     */
+    public void setStopHistory(StopHistory stopHistory) {
+        if (stopHistory != null && stopHistory.getOrdinals() != stopOrdinals) {
+            throw new IllegalArgumentException("Stop history must use the scheduler's stop ordinals");
+        }
+        this.stopHistory = stopHistory;
+    }
+
+    public StopHistory getStopHistory() {
+        return stopHistory;
+    }
+
+    private void startStage(SchedulerEvents.Stage event) {
+        vehiclesExamined = 0;
+        predictionEvaluations = 0;
+        event.begin();
+    }
+
+    private void finishStage(SchedulerEvents.Stage event) {
+        event.finish(currentCycleTimestamp, vehiclesExamined, predictionEvaluations);
+        cycleVehiclesExamined += vehiclesExamined;
+        cyclePredictionEvaluations += predictionEvaluations;
+    }
+
+    private void logDecision(DecisionEvent.Type type, String vehicleId, Route route) {
+        if (decisionLog != null) {
+            decisionLog.log(type, currentCycleTimestamp, vehicleId, route == null ? null : route.getRouteId());
+        }
+    }
+
+    /**
+     * Add a route and register its stops, giving them ordinals so per-stop count arrays are
+     * laid out in route order before any data arrives. A stop shared with routes added
+     * earlier must be the same Stop instance (IllegalArgumentException otherwise).
+     */
+    public void addRoute(Route route) {
+        stopRegistry.addRoute(route);
+        routeOrdinals.put(route, routes.size());
+        routes.add(route);
+        if (routes.size() > removalState.length) {
+            removalState = Arrays.copyOf(removalState, removalState.length * 2);
+        }
+        headroomQueue.addRoute(route); // Both follow the route's stop counts from now on
+        utilization.addRoute(route);
     }
 
     public void addVehicle(Vehicle vehicle) {
+        fleet.adopt(vehicle);
+        scheduleFirstEvent(vehicle.getSlot(), cycleCount);
+        events.schedule(vehicle.getSlot(), fleet.nextEventCycle[vehicle.getSlot()]);
         vehicles.add(vehicle);
-        updatePrediction();
+        vehicleIndexes.computeIfAbsent(vehicle.getRoute(), RouteVehicleIndex::new).add(vehicle);
+        headroomQueue.routeChanged(vehicle.getRoute());
+        utilization.vehicleAdded(vehicle);
     }
-    
-    private void updatePrediction() {
-        prediction = new Prediction(vehicles);
+
+    /**
+     * An active vehicle was changed through Vehicle rather than by its events: restore its
+     * route's order and predict the route again.
+     */
+    private void activeVehicleChanged(Vehicle vehicle) {
+        Route route = vehicle.getRoute();
+        vehicleIndexes.get(route).reorder();
+        headroomQueue.routeChanged(route);
+    }
+
+    public StopRegistry getStopRegistry() {
+        return stopRegistry;
     }
 
+    // Stop ordinals whose reported counts one task applies in parallel mode
+    private static final int ORDINALS_PER_TASK = 1024;
+
+    // Due vehicles moved by one task in parallel mode
+    private static final int EVENTS_PER_TASK = 1024;
+    private static final VehicleEvent[] VEHICLE_EVENTS = VehicleEvent.values();
+
     /**
-     * Check if a stop is the last stop in its route.
+     * What one range of due vehicles changed outside those vehicles, applied on the
+     * scheduling thread once every due vehicle has moved.
      */
-    private boolean isLastStop(Stop stop, Route route) {
-        List<Stop> stops = route.getStops();
-        return !stops.isEmpty() && stops.get(stops.size() - 1) == stop;
+    private static final class CycleChanges {
+        final List<Vehicle> retiring = new ArrayList<>(); // Departed from their last stop
+        final List<Stop> departedStops = new ArrayList<>(); // Stops a vehicle departed from
     }
 
-    public void updateStopCounts(Map<Integer, Integer> stopCounts) {
+    /**
+     * The stop history with a ring for every registered stop, or null if none is kept (or
+     * it could not grow, after which it is no longer kept).
+     */
+    private StopHistory growStopHistory() {
+        if (stopHistory != null) {
+            try {
+                stopHistory.ensureCapacity(stopOrdinals.size());
+            } catch (IOException e) {
+                System.err.println("Error growing stop history, no longer keeping it: " + e.getMessage());
+                stopHistory = null;
+            }
+        }
+        return stopHistory;
+    }
+
+    public void updateStopCounts(StopCounts stopCounts) {
         // Update stop counts in all routes from the data file
         // Skip updates for the last stop (passengers only get off, no counting)
-        for (Route route : routes) {
-            for (Stop stop : route.getStops()) {
-                if (!isLastStop(stop, route) && stopCounts.containsKey(stop.getId())) {
-                    stop.updatePeopleCount(stopCounts.get(stop.getId()));
+        SchedulerEvents.StopCountUpdate stopCountEvent = new SchedulerEvents.StopCountUpdate();
+        startStage(stopCountEvent);
+        StopHistory history = growStopHistory();
+        int timestamp = currentCycleTimestamp;
+        // Only the stops reported this cycle, each once however many routes serve it
+        if (stopCounts.getOrdinals() == stopOrdinals) {
+            int ranges = (stopOrdinals.size() + ORDINALS_PER_TASK - 1) / ORDINALS_PER_TASK;
+            RouteTasks.forEachIndex(pool, ranges, range -> {
+                int end = (range + 1) * ORDINALS_PER_TASK;
+                for (int ordinal = stopCounts.nextDirty(range * ORDINALS_PER_TASK); ordinal >= 0 && ordinal < end;
+                         ordinal = stopCounts.nextDirty(ordinal + 1)) {
+                    if (stopRegistry.isCounted(ordinal)) {
+                        stopRegistry.getStopAt(ordinal).updatePeopleCount(stopCounts.get(ordinal));
+                    }
+                    if (history != null) {
+                        history.append(ordinal, timestamp, stopCounts.get(ordinal));
+                    }
+                }
+            });
+        } else {
+            // Counts collected with other ordinals: find each reported stop by id
+            StopOrdinals countOrdinals = stopCounts.getOrdinals();
+            for (int ordinal = stopCounts.nextDirty(0); ordinal >= 0; ordinal = stopCounts.nextDirty(ordinal + 1)) {
+                int stopOrdinal = stopOrdinals.ordinalOf(countOrdinals.stopIdOf(ordinal));
+                if (stopOrdinal >= 0 && stopRegistry.isCounted(stopOrdinal)) {
+                    stopRegistry.getStopAt(stopOrdinal).updatePeopleCount(stopCounts.get(ordinal));
+                }
+                if (stopOrdinal >= 0 && history != null) {
+                    history.append(stopOrdinal, timestamp, stopCounts.get(ordinal));
                 }
             }
         }
+        if (history != null) {
+            history.cycleAppended(timestamp);
+        }
+        finishStage(stopCountEvent);
         
-        // Process vehicles based on 3-stage cycle
-        // Note: cycleStage is passed from processDataCycle to ensure correct timing
-        int cycleStage = cycleCount % 3;
+        SchedulerEvents.VehicleTransitions transitionEvent = new SchedulerEvents.VehicleTransitions();
+        startStage(transitionEvent);
         
-        // Use a list to track vehicles to remove (to avoid concurrent modification)
-        List<Vehicle> vehiclesToRemove = new ArrayList<>();
+        // Only the vehicles with an event due this cycle move (each reads this cycle's counts
+        // and its own fields only, so ranges of them can move in parallel)
+        int cycle = cycleCount;
+        int[] due = events.advanceTo(cycle);
+        vehiclesExamined = due.length;
+        CycleChanges[] rangeChanges = new CycleChanges[(due.length + EVENTS_PER_TASK - 1) / EVENTS_PER_TASK];
+        RouteTasks.forEachIndex(pool, rangeChanges.length, range -> {
+            CycleChanges changes = new CycleChanges();
+            int end = Math.min(due.length, (range + 1) * EVENTS_PER_TASK);
+            for (int i = range * EVENTS_PER_TASK; i < end; i++) {
+                fireEvent(due[i], cycle, stopCounts, changes);
+            }
+            rangeChanges[range] = changes;
+        });
+        // Each vehicle that stays has set its next event
+        boolean[] moved = new boolean[fleet.getRouteCount()]; // By the fleet's route ordinal
+        for (int slot : due) {
+            if (fleet.nextEventCycle[slot] >= 0) {
+                events.schedule(slot, fleet.nextEventCycle[slot]);
+            }
+            moved[fleet.routeOrdinal[slot]] = true;
+        }
+        // Vehicles have moved and changed state: restore those routes' order
+        List<RouteVehicleIndex> movedRoutes = new ArrayList<>();
+        for (int ordinal = 0; ordinal < moved.length; ordinal++) {
+            if (moved[ordinal]) {
+                movedRoutes.add(vehicleIndexes.get(fleet.getRoute(ordinal)));
+            }
+        }
+        RouteTasks.forEach(pool, movedRoutes, RouteVehicleIndex::reorder);
         
+        // Merge the ranges' changes: stop counts left after departures, then retirements
+        // in fleet order, the same whether vehicles moved one after another or in parallel
+        Set<Vehicle> retiring = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CycleChanges changes : rangeChanges) {
+            for (Stop stop : changes.departedStops) {
+                stop.updatePeopleCount(stopCounts.getById(stop.getId()));
+            }
+            retiring.addAll(changes.retiring);
+        }
+        if (retiring.isEmpty()) {
+            finishStage(transitionEvent);
+            return;
+        }
+        List<Vehicle> vehiclesToRemove = new ArrayList<>();
         for (Vehicle vehicle : vehicles) {
-            Stop currentStop = vehicle.getCurrentStop();
-            Route vehicleRoute = vehicle.getRoute();
-            boolean atLastStop = isLastStop(currentStop, vehicleRoute);
-            int currentStopCount = stopCounts.getOrDefault(currentStop.getId(), 0);
-            
-            if (cycleStage == 0) {
-                // Stage 0: DEPARTING → ARRIVING (vehicle moves to next stop and becomes arriving)
-                // OR initialize vehicles starting at stops
-                if (vehicle.getState() == VehicleState.DEPARTING) {
-                    if (atLastStop) {
-                        // Vehicle is DEPARTING from last stop: remove it from the route
-                        vehiclesToRemove.add(vehicle);
-                    } else {
-                        // Vehicle was departing, now move to next stop and become ARRIVING
-                        // (stays in ARRIVING for this full cycle 0, will become PRESENT in cycle 1)
-                        vehicle.moveToNextStop();
-                    }
-                } else if (vehicle.getState() == VehicleState.PRESENT && vehicle.getPassengersWhenPresent() == 0) {
-                    // Initialize passengersWhenPresent for vehicles starting at stops
-                    // Skip for last stop (no passenger counting at last stop)
-                    if (!atLastStop) {
-                        vehicle.setPassengersWhenPresent(currentStopCount);
-                    }
-                }
-            } else if (cycleStage == 1) {
-                // Stage 1: ARRIVING → PRESENT (vehicle becomes present after arriving)
-                // OR PRESENT (vehicle stays at stop)
-                if (vehicle.getState() == VehicleState.ARRIVING) {
-                    // Vehicle was arriving, now becomes present
-                    if (atLastStop) {
-                        // At last stop: empty all passengers when becoming PRESENT
-                        vehicle.setPassengerCount(0);
-                        vehicle.markAsPresent();
-                    } else {
-                        vehicle.setPassengersWhenPresent(currentStopCount);
-                        vehicle.markAsPresent();
-                    }
-                } else if (vehicle.getState() == VehicleState.PRESENT) {
-                    // Vehicle is PRESENT: update passengersWhenPresent at END of cycle 1
-                    // This captures accumulated passengers that will be available when vehicle departs
-                    // Skip for last stop (no passenger counting at last stop)
-                    if (!atLastStop) {
-                        vehicle.setPassengersWhenPresent(currentStopCount);
-                    }
-                }
-            } else if (cycleStage == 2) {
-                // Stage 2: PRESENT → DEPARTING
-                // Vehicle departs, picks up passengers (stays in DEPARTING for full cycle)
-                if (vehicle.getState() == VehicleState.PRESENT) {
-                    vehicle.markAsDeparting();
-                    
-                    if (!atLastStop) {
-                        // Normal stop: calculate passengers picked up
-                        // Calculate passengers picked up = passengers when present - passengers remaining after departure
-                        // passengersWhenPresent was set at END of cycle 1 (after accumulation)
-                        int passengersWhenPresent = vehicle.getPassengersWhenPresent();
-                        int passengersRemainingAfterDeparture = currentStopCount;
-                        int passengersPickedUp = Math.max(0, passengersWhenPresent - passengersRemainingAfterDeparture);
-                        
-                        // Respect vehicle capacity
-                        int remainingCapacity = vehicle.getCapacity() - vehicle.getPassengerCount();
-                        int actualPickup = Math.min(passengersPickedUp, remainingCapacity);
-                        
-                        if (actualPickup > 0) {
-                            vehicle.pickUpPassengers(actualPickup);
-                        }
-                        
-                        // Update stop count (remaining passengers after vehicle departure)
-                        currentStop.updatePeopleCount(passengersRemainingAfterDeparture);
-                    }
-                    // At last stop: skip pickup logic (passengers only get off, no pickup)
-                    // Vehicle stays in DEPARTING state for full cycle 2
-                    // Will be removed in next cycle 0
-                }
+            if (retiring.contains(vehicle)) {
+                vehiclesToRemove.add(vehicle);
             }
         }
+        vehicles.removeIf(retiring::contains); // One pass for all of them
         
         // Remove vehicles that departed from last stop
         for (Vehicle vehicle : vehiclesToRemove) {
-            vehicles.remove(vehicle);
-            updatePrediction();
-            System.out.println("\n" + success("[OK] [VEHICLE REMOVED]") + " Vehicle " + highlight(vehicle.getId()) + 
-                             " has completed the route and been removed.");
+            vehicleIndexes.get(vehicle.getRoute()).remove(vehicle);
+            headroomQueue.vehicleRemoved(vehicle);
+            utilization.vehicleRemoved(vehicle);
+            fleet.release(vehicle); // Its slot goes to the next vehicle added
+            metrics.retired();
+            logDecision(DecisionEvent.Type.RETIRE, vehicle.getId(), vehicle.getRoute());
+            if (!headless) {
+                System.out.println("\n" + success("[OK] [VEHICLE REMOVED]") + " Vehicle " + highlight(vehicle.getId()) + 
+                                 " has completed the route and been removed.");
+            }
         }
+        finishStage(transitionEvent);
     }
 
 
 
-    private boolean checkIfDeploymentNeeded() {
-        updatePrediction();
-        for (Vehicle vehicle : vehicles) {
-            for (Stop futureStop : prediction.getFutureStops(vehicle)) {
-                int predictedFullness = prediction.predictFullnessAtStop(vehicle, futureStop);
-                int threshold = (int) (vehicle.getCapacity() * vehicle.getRoute().getDeploymentThreshold());
-                if (predictedFullness > threshold) {
-                    return true;
-                }
+    /**
+     * Schedule the first event of a vehicle joining the fleet at a cycle. It waits for its
+     * state's turn in the three-stage cycle (DEPARTING vehicles move on in cycles 0 mod 3,
+     * ARRIVING vehicles become PRESENT in cycles 1 mod 3 and PRESENT vehicles depart in
+     * cycles 2 mod 3); from then on it keeps its own timings.
+     */
+    private void scheduleFirstEvent(int slot, int cycle) {
+        VehicleState state = fleet.stateOf(slot);
+        VehicleEvent event;
+        int eventCycle;
+        if (state == VehicleState.DEPARTING) {
+            event = VehicleEvent.ARRIVE;
+            eventCycle = cycle + Math.floorMod(-cycle, 3);
+        } else if (state == VehicleState.ARRIVING) {
+            event = VehicleEvent.DOCK;
+            eventCycle = cycle + Math.floorMod(1 - cycle, 3);
+        } else {
+            // PRESENT: take the stop's count in each remaining cycle before departing
+            int stage = cycle % 3;
+            event = stage == 0 ? VehicleEvent.INITIALIZE : stage == 1 ? VehicleEvent.OBSERVE : VehicleEvent.DEPART;
+            eventCycle = cycle;
+        }
+        fleet.nextEvent[slot] = (byte) event.ordinal();
+        fleet.nextEventCycle[slot] = eventCycle;
+    }
+
+    /**
+     * Make a vehicle's next event due at a cycle, e.g. as saved in a state snapshot.
+     */
+    void scheduleEvent(Vehicle vehicle, VehicleEvent event, int cycle) {
+        fleet.nextEvent[vehicle.getSlot()] = (byte) event.ordinal();
+        fleet.nextEventCycle[vehicle.getSlot()] = cycle;
+        events.schedule(vehicle.getSlot(), cycle);
+    }
+
+    VehicleEvent getNextEvent(Vehicle vehicle) {
+        return VEHICLE_EVENTS[fleet.nextEvent[vehicle.getSlot()]];
+    }
+
+    int getNextEventCycle(Vehicle vehicle) {
+        return fleet.nextEventCycle[vehicle.getSlot()];
+    }
+
+    private void setNextEvent(int slot, VehicleEvent event, int cycle) {
+        fleet.nextEvent[slot] = (byte) event.ordinal();
+        fleet.nextEventCycle[slot] = cycle;
+    }
+
+    /**
+     * Run the event due for the vehicle in a fleet slot and set its next one (next event
+     * cycle -1 if it leaves the fleet). Works on the fleet's arrays directly and only reads
+     * the vehicle, its route and this cycle's counts; effects on stops and the fleet are
+     * collected in changes.
+     */
+    private void fireEvent(int slot, int cycle, StopCounts stopCounts, CycleChanges changes) {
+        FleetStore fleet = this.fleet;
+        VehicleEvent event = VEHICLE_EVENTS[fleet.nextEvent[slot]];
+        if (fleet.stateOf(slot) != event.state) {
+            // State was changed from outside since the event was scheduled: start over from it
+            scheduleFirstEvent(slot, cycle);
+            if (fleet.nextEventCycle[slot] > cycle) {
+                return;
             }
+            event = VEHICLE_EVENTS[fleet.nextEvent[slot]];
+        }
+        Route route = fleet.routeOf(slot);
+        int positionBefore = fleet.stopIndex[slot];
+        byte stateBefore = fleet.state[slot];
+        int passengersBefore = fleet.passengerCount[slot];
+        Stop currentStop = route.getStop(positionBefore);
+        boolean atLastStop = route.isLastStop(positionBefore);
+        int currentStopCount = stopCounts.getById(currentStop.getId());
+        
+        switch (event) {
+            case ARRIVE:
+                if (atLastStop) {
+                    // Vehicle is DEPARTING from last stop: remove it from the route
+                    changes.retiring.add(fleet.vehicleAt(slot));
+                    fleet.nextEventCycle[slot] = -1;
+                } else {
+                    // Vehicle was departing, now move to next stop and become ARRIVING
+                    // (stays in ARRIVING for this full cycle, will become PRESENT in the next)
+                    fleet.moveToNextStop(slot);
+                    setNextEvent(slot, VehicleEvent.DOCK, cycle + 1);
+                }
+                break;
+            case INITIALIZE:
+                // Initialize passengersWhenPresent for vehicles starting at stops
+                // Skip for last stop (no passenger counting at last stop)
+                if (fleet.passengersWhenPresent[slot] == 0 && !atLastStop) {
+                    fleet.passengersWhenPresent[slot] = currentStopCount;
+                }
+                setNextEvent(slot, VehicleEvent.OBSERVE, cycle + 1);
+                break;
+            case DOCK:
+                // Vehicle was arriving, now becomes present
+                if (atLastStop) {
+                    // At last stop: empty all passengers when becoming PRESENT
+                    fleet.passengerCount[slot] = 0;
+                } else {
+                    fleet.passengersWhenPresent[slot] = currentStopCount;
+                }
+                fleet.setState(slot, VehicleState.PRESENT);
+                int dwellCycles = fleet.dwellCycles[slot];
+                if (dwellCycles > 1) {
+                    setNextEvent(slot, VehicleEvent.OBSERVE, cycle + dwellCycles - 1);
+                } else {
+                    setNextEvent(slot, VehicleEvent.DEPART, cycle + 1);
+                }
+                break;
+            case OBSERVE:
+                // Vehicle is PRESENT: update passengersWhenPresent in the cycle before it departs
+                // This captures accumulated passengers that will be available when vehicle departs
+                // Skip for last stop (no passenger counting at last stop)
+                if (!atLastStop) {
+                    fleet.passengersWhenPresent[slot] = currentStopCount;
+                }
+                setNextEvent(slot, VehicleEvent.DEPART, cycle + 1);
+                break;
+            case DEPART:
+                // Vehicle departs, picks up passengers (stays in DEPARTING until it reaches the next stop)
+                fleet.setState(slot, VehicleState.DEPARTING);
+                
+                if (!atLastStop) {
+                    // Normal stop: calculate passengers picked up
+                    // Calculate passengers picked up = passengers when present - passengers remaining after departure
+                    // passengersWhenPresent was taken in the cycle before (after accumulation)
+                    int passengersWhenPresent = fleet.passengersWhenPresent[slot];
+                    int passengersRemainingAfterDeparture = currentStopCount;
+                    int passengersPickedUp = Math.max(0, passengersWhenPresent - passengersRemainingAfterDeparture);
+                    
+                    // Respect vehicle capacity
+                    int remainingCapacity = fleet.capacity[slot] - fleet.passengerCount[slot];
+                    int actualPickup = Math.min(passengersPickedUp, remainingCapacity);
+                    
+                    if (actualPickup > 0) {
+                        fleet.passengerCount[slot] += actualPickup;
+                    }
+                    
+                    // Update stop count (remaining passengers after vehicle departure).
+                    // Applied once all vehicles have moved: the count is the stop's count
+                    // this cycle whichever vehicle departs, and no vehicle reads it meanwhile
+                    changes.departedStops.add(currentStop);
+                }
+                // At last stop: skip pickup logic (passengers only get off, no pickup)
+                // Will be removed when its travel time is up
+                setNextEvent(slot, VehicleEvent.ARRIVE, cycle + fleet.travelCycles[slot]);
+                break;
+        }
+        
+        // Anything that moves the vehicle along its route changes the predictions there
+        if (fleet.stopIndex[slot] != positionBefore || fleet.state[slot] != stateBefore
+                || fleet.passengerCount[slot] != passengersBefore) {
+            headroomQueue.routeChanged(route);
         }
-        return false;
+    }
+
+    /**
+     * Whether any vehicle is predicted to exceed its deployment threshold at a future stop.
+     * Only vehicles on routes that changed since the last check are predicted again.
+     */
+    boolean checkIfDeploymentNeeded() { // Package-private for benchmarks
+        boolean deploymentNeeded = headroomQueue.isDeploymentNeeded(pool);
+        vehiclesExamined += headroomQueue.getVehiclesEvaluated();
+        predictionEvaluations += headroomQueue.getPredictionsEvaluated();
+        return deploymentNeeded;
     }
 
     private void printPredictedFullness() {
-        updatePrediction();
-        System.out.println("  " + header("Predicted Fullness:"));
-        for (Vehicle vehicle : vehicles) {
-            Stop currentStop = vehicle.getCurrentStop();
-            Route vehicleRoute = vehicle.getRoute();
-            boolean atLastStop = isLastStop(currentStop, vehicleRoute);
-            
-            // Color code vehicle state
-            String stateColor = "";
-            String stateText = vehicle.getState().toString();
-            switch (vehicle.getState()) {
-                case ARRIVING:
-                    stateColor = YELLOW;
-                    break;
-                case PRESENT:
-                    stateColor = GREEN;
-                    break;
-                case DEPARTING:
-                    stateColor = MAGENTA;
-                    break;
+        System.out.print(renderReport());
+    }
+
+    /**
+     * Render the human-readable predicted fullness report for the current state.
+     * Only built when asked for (never in headless mode). Routes unchanged since the last
+     * deployment check reuse the sweeps it made; only the others are predicted again.
+     */
+    public String renderReport() {
+        StringBuilder report = new StringBuilder();
+        line(report, "  " + header("Predicted Fullness:"));
+        if (vehicles.isEmpty()) {
+            return report.toString();
+        }
+        
+        // Each route's vehicles are rendered as one task; sections are joined in fleet order
+        Map<Route, List<Integer>> slotsByRoute = new IdentityHashMap<>();
+        for (int i = 0; i < vehicles.size(); i++) {
+            slotsByRoute.computeIfAbsent(vehicles.get(i).getRoute(), route -> new ArrayList<>()).add(i);
+        }
+        Prediction prediction = new Prediction(vehicles, vehicleIndexes);
+        for (Route route : slotsByRoute.keySet()) {
+            RouteSweep sweep = headroomQueue.getSweep(route);
+            if (sweep != null) {
+                prediction.addRouteSweep(route, sweep);
             }
-            
-            System.out.println("    " + highlight("Vehicle " + vehicle.getId()) + 
-                             " (" + info("Capacity: " + vehicle.getCapacity()) + 
-                             ", " + info("Current Passengers: " + vehicle.getPassengerCount()) + 
-                             ", " + colorize("State: " + stateText, stateColor) + 
-                             ", " + info("Current Stop: " + currentStop.getName()) + "):");
-            
-            List<Stop> futureStops = prediction.getFutureStops(vehicle);
-            
-            if (atLastStop && vehicle.getState() == VehicleState.PRESENT) {
-                // Vehicle is at the final stop and present
-                System.out.println("      " + warning("[*] At final stop - passengers will be unloaded here"));
-            } else if (atLastStop && vehicle.getState() == VehicleState.DEPARTING) {
-                // Vehicle is departing from the final stop
-                System.out.println("      " + warning("[*] Route completed..Heading back to depot..will be removed from route"));
-            } else if (futureStops.isEmpty()) {
-                // No future stops means only final stop remains
-                Stop lastStop = vehicleRoute.getStops().get(vehicleRoute.getStops().size() - 1);
-                System.out.println("      " + info("Final stop remaining: " + lastStop.getName() + " (no predictions for final stop)"));
-            } else {
-                for (Stop futureStop : futureStops) {
-                    int predictedFullness = prediction.predictFullnessAtStop(vehicle, futureStop);
-                    int threshold = (int) (vehicle.getCapacity() * vehicle.getRoute().getDeploymentThreshold());
-                    boolean exceedsThreshold = predictedFullness > threshold;
-                    String status = exceedsThreshold ? " " + error("[EXCEEDS THRESHOLD!]") : "";
-                    String fullnessColor = exceedsThreshold ? RED : (predictedFullness > vehicle.getCapacity() * 0.8 ? YELLOW : GREEN);
-                    System.out.println("      " + futureStop.getName() + ": " + 
-                                     colorize(predictedFullness + " / " + vehicle.getCapacity(), fullnessColor) + 
-                                     " (" + info("Threshold: " + threshold) + ")" + status);
-                }
+        }
+        prediction.sweepRoutes(new ArrayList<>(slotsByRoute.keySet()), pool);
+        String[] sections = new String[vehicles.size()];
+        int[] predictions = new int[vehicles.size()];
+        RouteTasks.forEach(pool, new ArrayList<>(slotsByRoute.values()), slots -> {
+            for (int i : slots) {
+                StringBuilder section = new StringBuilder();
+                predictions[i] = renderVehicle(section, vehicles.get(i), prediction);
+                sections[i] = section.toString();
             }
+        });
+        for (int i = 0; i < sections.length; i++) {
+            report.append(sections[i]);
+            predictionEvaluations += predictions[i];
         }
+        vehiclesExamined += vehicles.size();
+        return report.toString();
+    }
+
+    /**
+     * Append one vehicle's part of the report. Returns the number of predictions read.
+     */
+    private int renderVehicle(StringBuilder report, Vehicle vehicle, Prediction prediction) {
+        int predictions = 0;
+        Stop currentStop = vehicle.getCurrentStop();
+        Route vehicleRoute = vehicle.getRoute();
+        boolean atLastStop = vehicle.isAtLastStop();
+        
+        // Color code vehicle state
+        String stateColor = "";
+        String stateText = vehicle.getState().toString();
+        switch (vehicle.getState()) {
+            case ARRIVING:
+                stateColor = YELLOW;
+                break;
+            case PRESENT:
+                stateColor = GREEN;
+                break;
+            case DEPARTING:
+                stateColor = MAGENTA;
+                break;
+        }
+        
+        line(report, "    " + highlight("Vehicle " + vehicle.getId()) + 
+                         " (" + info("Capacity: " + vehicle.getCapacity()) + 
+                         ", " + info("Current Passengers: " + vehicle.getPassengerCount()) + 
+                         ", " + colorize("State: " + stateText, stateColor) + 
+                         ", " + info("Current Stop: " + currentStop.getName()) + "):");
+        
+        List<Stop> futureStops = prediction.getFutureStops(vehicle);
+        
+        if (atLastStop && vehicle.getState() == VehicleState.PRESENT) {
+            // Vehicle is at the final stop and present
+            line(report, "      " + warning("[*] At final stop - passengers will be unloaded here"));
+        } else if (atLastStop && vehicle.getState() == VehicleState.DEPARTING) {
+            // Vehicle is departing from the final stop
+            line(report, "      " + warning("[*] Route completed..Heading back to depot..will be removed from route"));
+        } else if (futureStops.isEmpty()) {
+            // No future stops means only final stop remains
+            Stop lastStop = vehicleRoute.getStop(vehicleRoute.getLastPosition());
+            line(report, "      " + info("Final stop remaining: " + lastStop.getName() + " (no predictions for final stop)"));
+        } else {
+            for (Stop futureStop : futureStops) {
+                int predictedFullness = prediction.predictFullnessAtStop(vehicle, futureStop);
+                predictions++;
+                int threshold = (int) (vehicle.getCapacity() * vehicle.getRoute().getDeploymentThreshold());
+                boolean exceedsThreshold = predictedFullness > threshold;
+                String status = exceedsThreshold ? " " + error("[EXCEEDS THRESHOLD!]") : "";
+                String fullnessColor = exceedsThreshold ? RED : (predictedFullness > vehicle.getCapacity() * 0.8 ? YELLOW : GREEN);
+                line(report, "      " + futureStop.getName() + ": " + 
+                                 colorize(predictedFullness + " / " + vehicle.getCapacity(), fullnessColor) + 
+                                 " (" + info("Threshold: " + threshold) + ")" + status);
+            }
+        }
+        return predictions;
+    }
+
+    private static void line(StringBuilder out, String text) {
+        out.append(text).append(System.lineSeparator());
     }
 
     private void deployNewVehicle(Route route) {
         // Create and schedule a new vehicle
         String vehicleId = "V" + nextVehicleId++;
-        Stop startingStop = route.getStops().get(0);
+        Stop startingStop = route.getStop(0);
         Vehicle newVehicle = new Vehicle(vehicleId, route, 50, startingStop); // Default capacity 50
         scheduledVehicles.add(newVehicle);
-        removalState = 0; // Reset removal state when new vehicle is deployed
-        System.out.println("\n" + success("[DEPLOYMENT]") + " New vehicle " + highlight(vehicleId) + 
-                          " scheduled for deployment to " + info(route.getRouteName()) + 
-                          " starting at " + info(startingStop.getName()));
+        Integer ordinal = routeOrdinals.get(route);
+        if (ordinal != null) {
+            removalState[ordinal] = 0; // Reset the route's removal state when a new vehicle is deployed to it
+        }
+        metrics.deployed();
+        logDecision(DecisionEvent.Type.DEPLOY, vehicleId, route);
+        if (!headless) {
+            System.out.println("\n" + success("[DEPLOYMENT]") + " New vehicle " + highlight(vehicleId) + 
+                              " scheduled for deployment to " + info(route.getRouteName()) + 
+                              " starting at " + info(startingStop.getName()));
+        }
     }
 
-    private void removeScheduledVehicle() {
-        if (scheduledVehicles.isEmpty()) {
-            // No scheduled vehicles, set removal state to -1 to prevent further removals
-            removalState = -1;
-            System.out.println("\n" + warning("[!] [REMOVAL]") + " Removal requested but no scheduled vehicles available. Removal state set to prevent further removals.");
-        } else {
-            Vehicle removed = scheduledVehicles.remove(0);
-            removalState = 0; // Reset removal state when vehicle is successfully removed
-            System.out.println("\n" + warning("[!] [REMOVAL]") + " Scheduled vehicle " + highlight(removed.getId()) + 
-                            " removed from deployment schedule for " + info(removed.getRoute().getRouteName()));
+    private boolean hasScheduledVehicle(Route route) {
+        for (Vehicle vehicle : scheduledVehicles) {
+            if (vehicle.getRoute() == route) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private boolean checkIfRemovalNeeded() {
-        // Check if removal already happened when no scheduled vehicles (prevent further removals)
-        if (removalState == -1) {
-            return false;
+    private void removeScheduledVehicle(Route route, int ordinal) {
+        Vehicle removed = null;
+        for (int i = 0; i < scheduledVehicles.size(); i++) {
+            if (scheduledVehicles.get(i).getRoute() == route) {
+                removed = scheduledVehicles.remove(i);
+                break;
+            }
         }
-        
-        int totalPassengers = 0;
-        for (Route route : routes) {
-            for (Stop stop : route.getStops()) {
-                totalPassengers += stop.getPeopleCount();
+        if (removed == null) {
+            // No scheduled vehicles on the route, set its removal state to -1 to prevent further removals
+            removalState[ordinal] = -1;
+            metrics.removalBlocked();
+            logDecision(DecisionEvent.Type.REMOVE_BLOCKED, null, route);
+            if (!headless) {
+                System.out.println("\n" + warning("[!] [REMOVAL]") + " Removal requested for " + info(route.getRouteName()) +
+                                " but no scheduled vehicles available. Removal state set to prevent further removals.");
+            }
+        } else {
+            removalState[ordinal] = 0; // Reset removal state when vehicle is successfully removed
+            metrics.removed();
+            logDecision(DecisionEvent.Type.REMOVE, removed.getId(), removed.getRoute());
+            if (!headless) {
+                System.out.println("\n" + warning("[!] [REMOVAL]") + " Scheduled vehicle " + highlight(removed.getId()) + 
+                                " removed from deployment schedule for " + info(removed.getRoute().getRouteName()));
             }
         }
-        
-        // Calculate average capacity of active vehicles
-        int totalCapacity = 0;
-        for (Vehicle vehicle : vehicles) {
-            totalCapacity += vehicle.getCapacity();
+    }
+
+    private boolean checkIfRemovalNeeded(Route route, int ordinal) {
+        // Check if removal already happened when the route had no scheduled vehicles (prevent further removals)
+        if (removalState[ordinal] == -1) {
+            return false;
         }
         
-        if (totalCapacity == 0) {
+        // Waiting passengers and active capacity are running totals (see NetworkUtilization)
+        if (utilization.getActiveCapacity(route) == 0) {
             return false;
         }
         
-        // If total passengers are significantly below average capacity, removal is needed
-        double utilizationRatio = (double) totalPassengers / totalCapacity;
-        return utilizationRatio < REMOVAL_THRESHOLD;
+        // If the route's passengers are significantly below its active capacity, removal is needed
+        return utilization.getUtilization(route) < removalThreshold;
     }
 
-    private void processDataCycle(Map<Integer, Integer> stopCounts, Map<Integer, Integer> previousCounts) {
+    /**
+     * Process one cycle of counts. stopCounts holds this cycle's counts and the previous
+     * cycle's (if any), which the removal check compares against.
+     */
+    public void processDataCycle(StopCounts stopCounts) {
+        SchedulerEvents.Cycle cycleEvent = new SchedulerEvents.Cycle();
+        cycleEvent.begin();
+        cycleVehiclesExamined = 0;
+        cyclePredictionEvaluations = 0;
+        long start = System.nanoTime();
         updateStopCounts(stopCounts);
         cycleCount++; // Increment cycle count for 3-stage progression AFTER processing
+        long updated = System.nanoTime();
+        metrics.updateStopCounts.record(updated - start);
         
         // Check for deployment needs
-        if (checkIfDeploymentNeeded() && scheduledVehicles.isEmpty() && !routes.isEmpty()) {
-            deployNewVehicle(routes.get(0));
+        SchedulerEvents.DeploymentCheck deploymentEvent = new SchedulerEvents.DeploymentCheck();
+        startStage(deploymentEvent);
+        boolean deploymentNeeded = checkIfDeploymentNeeded();
+        finishStage(deploymentEvent);
+        long deploymentChecked = System.nanoTime();
+        metrics.deploymentCheck.record(deploymentChecked - updated);
+        metrics.fullnessPredicted(headroomQueue.getPeakFullness());
+        if (deploymentNeeded) {
+            metrics.thresholdBreached();
+        }
+        if (deploymentNeeded) {
+            // One vehicle at a time on each route where some vehicle is predicted to overflow
+            for (Route route : headroomQueue.getBreachingRoutes()) {
+                if (!hasScheduledVehicle(route)) {
+                    deployNewVehicle(route);
+                }
+            }
         }
         
         // Check for removal needs (if counts decreased significantly)
-        if (previousCounts != null && checkIfRemovalNeeded() && hasSignificantDecrease(stopCounts, previousCounts)) {
-            removeScheduledVehicle();
+        long removalStart = System.nanoTime();
+        SchedulerEvents.RemovalCheck removalEvent = new SchedulerEvents.RemovalCheck();
+        startStage(removalEvent);
+        stopTrends.update(stopCounts);
+        metrics.trendsUpdated(stopTrends.getSurgingStops(), stopTrends.getDecayingStops());
+        boolean[] removalNeeded = checkRemovals();
+        finishStage(removalEvent);
+        metrics.removalCheck.record(System.nanoTime() - removalStart);
+        for (int ordinal = 0; ordinal < routes.size(); ordinal++) {
+            if (removalNeeded[ordinal]) {
+                removeScheduledVehicle(routes.get(ordinal), ordinal);
+            }
         }
+        
+        cycleEvent.finish(currentCycleTimestamp, cycleVehiclesExamined, cyclePredictionEvaluations);
     }
     
-    private boolean hasSignificantDecrease(Map<Integer, Integer> current, Map<Integer, Integer> previous) {
-        for (Map.Entry<Integer, Integer> entry : current.entrySet()) {
-            int previousCount = previous.getOrDefault(entry.getKey(), 0);
-            if (previousCount > 0 && entry.getValue() < previousCount * 0.5) {
-                return true;
+    /**
+     * Routes (by ordinal) that are under-used with their demand decaying.
+     */
+    private boolean[] checkRemovals() {
+        int[] surging = countRoutesAt(stopTrends.getSurgingStops(), true);
+        int[] decaying = countRoutesAt(stopTrends.getDecayingStops(), false);
+        boolean[] removalNeeded = new boolean[routes.size()];
+        for (int ordinal = 0; ordinal < routes.size(); ordinal++) {
+            removalNeeded[ordinal] = checkIfRemovalNeeded(routes.get(ordinal), ordinal)
+                    && isDemandDecaying(surging[ordinal], decaying[ordinal]);
+        }
+        return removalNeeded;
+    }
+
+    /**
+     * For each route, how many of the last update's surging (or decaying) stops it serves.
+     */
+    private int[] countRoutesAt(int stops, boolean surging) {
+        int[] counts = new int[routes.size()];
+        for (int i = 0; i < stops; i++) {
+            int stop = surging ? stopTrends.getSurgingOrdinal(i) : stopTrends.getDecayingOrdinal(i);
+            Route[] serving = stopRegistry.getRoutesAt(stop);
+            if (serving != null) {
+                for (Route route : serving) {
+                    counts[routeOrdinals.get(route)]++;
+                }
             }
         }
-        return false;
+        return counts;
     }
 
+    private static boolean isDemandDecaying(int surgingStops, int decayingStops) {
+        // Some stop on the route has stayed under half its earlier level, and none is surging right now
+        return decayingStops > 0 && surgingStops == 0;
+    }
+
+    public StopTrends getStopTrends() {
+        return stopTrends;
+    }
 
+
+    /**
+     * The routes added so far, read-only: add routes with addRoute so they are registered.
+     */
     public List<Route> getRoutes() {
-        return routes;
+        return Collections.unmodifiableList(routes);
     }
 
     public List<Vehicle> getVehicles() {
@@ -351,101 +846,351 @@ public class Scheduler {
         return scheduledVehicles;
     }
 
-    public void startScheduling() {
-        List<DataReader.DataEntry> data = dataReader.readData();
+    /**
+     * Add one crowd count record. Records are grouped into cycles by timestamp:
+     * when a record with a new timestamp arrives, the cycle collected so far is processed.
+     */
+    public void acceptRecord(int stopId, int crowdCount, int secondsOfDay) {
+        // On new timestamp boundary, process previous cycle if any
+        if (cycleTimestamp != -1 && cycleTimestamp != secondsOfDay) {
+            runCycle();
+        }
 
-        // Since our sample data is already grouped by timestamp and chronologically sorted,
-        // we can simply iterate in order and process whenever the timestamp changes.
+        // Collect stop crowd counts for current timestamp
+        cycleCounts.put(stopId, crowdCount);
+        cycleTimestamp = secondsOfDay;
+    }
 
-        Map<Integer, Integer> stopCounts = new HashMap<>();
-        Map<Integer, Integer> previousCounts = null;
-        String previousTimestamp = null;
+    /**
+     * Add a record to the cycle being collected whatever its timestamp, for input whose
+     * cycles are ended by endCycle() alone. The cycle takes the newest timestamp of its
+     * records (one just after midnight is newer than one just before).
+     */
+    public void addToCycle(int stopId, int crowdCount, int secondsOfDay) {
+        cycleCounts.put(stopId, crowdCount);
+        if (cycleTimestamp == -1 || DataReader.timeAfter(cycleTimestamp, secondsOfDay) > cycleTimestamp) {
+            cycleTimestamp = secondsOfDay;
+        }
+    }
 
-        System.out.println(bold(colorize("===============================================================", CYAN)));
-        System.out.println(bold(colorize("           Starting Scheduling System", CYAN)));
-        System.out.println(bold(colorize("===============================================================", CYAN)) + "\n");
+    /**
+     * Process the cycle collected so far, if any, without waiting for the next timestamp.
+     */
+    public void endCycle() {
+        if (!cycleCounts.isEmpty() && cycleTimestamp != -1) {
+            runCycle();
+        }
+    }
 
-        int processedCycles = 0;
+    private void runCycle() {
+        long start = System.nanoTime();
+        currentCycleTimestamp = cycleTimestamp;
+        if (stateStore != null) {
+            try {
+                stateStore.logCycle(processedCycles + 1, cycleTimestamp, cycleCounts);
+            } catch (IOException e) {
+                System.err.println("Error writing cycle log: " + e.getMessage());
+            }
+        }
+        if (headless) {
+            processDataCycle(cycleCounts);
+            cycleCounts.swap();
+            cycleTimestamp = -1;
+            processedCycles++;
+            cycleCompleted(start);
+            return;
+        }
 
-        for (DataReader.DataEntry entry : data) {
-            String timestamp = entry.getTimestamp();
+        System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
+        System.out.println(header("  Processing timestamp: " + DataReader.formatTime(cycleTimestamp)));
+        System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
+        System.out.println("  " + info("Stop counts: ") + cycleCounts);
+        System.out.println();
 
-            // On new timestamp boundary, process previous cycle if any
-            if (previousTimestamp != null && !previousTimestamp.equals(timestamp)) {
-                System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
-                System.out.println(header("  Processing timestamp: " + previousTimestamp));
-                System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
-                System.out.println("  " + info("Stop counts: ") + stopCounts);
-                System.out.println();
+        processDataCycle(cycleCounts);
+        long reportStart = System.nanoTime();
+        SchedulerEvents.Render renderEvent = new SchedulerEvents.Render();
+        startStage(renderEvent);
+        printPredictedFullness();
+        finishStage(renderEvent);
+        metrics.report.record(System.nanoTime() - reportStart);
 
-                processDataCycle(stopCounts, previousCounts);
-                printPredictedFullness();
+        cycleCounts.swap();
+        cycleTimestamp = -1;
 
-                previousCounts = new HashMap<>(stopCounts);
-                stopCounts.clear();
+        System.out.println();
+        System.out.println("  " + info("Active vehicles: ") + highlight(String.valueOf(vehicles.size())));
+        System.out.println("  " + info("Scheduled vehicles: ") + highlight(String.valueOf(scheduledVehicles.size())));
+        System.out.println();
+        processedCycles++;
+        cycleCompleted(start);
+    }
 
-                System.out.println();
-                System.out.println("  " + info("Active vehicles: ") + highlight(String.valueOf(vehicles.size())));
-                System.out.println("  " + info("Scheduled vehicles: ") + highlight(String.valueOf(scheduledVehicles.size())));
-                System.out.println();
-                processedCycles++;
+    private void cycleCompleted(long startNanos) {
+        metrics.cycle.record(System.nanoTime() - startNanos);
+        metrics.cycleProcessed(currentCycleTimestamp, vehicles.size(), scheduledVehicles.size());
+        if (stateStore != null) {
+            try {
+                stateStore.cycleCompleted(this);
+            } catch (IOException e) {
+                System.err.println("Error writing state snapshot: " + e.getMessage());
             }
+        }
+    }
 
-            // Collect stop crowd counts for current timestamp
-            stopCounts.put(entry.getStopId(), entry.getCrowdCount());
-            previousTimestamp = timestamp;
+    /**
+     * Write everything needed to carry on from the current cycle boundary (see StateStore).
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(processedCycles);
+        out.writeInt(currentCycleTimestamp);
+        out.writeInt(cycleCount);
+        out.writeInt(routes.size());
+        for (int ordinal = 0; ordinal < routes.size(); ordinal++) {
+            out.writeInt(removalState[ordinal]);
         }
+        out.writeInt(nextVehicleId);
 
-        // Process last group of entries if any left
-        if (!stopCounts.isEmpty() && previousTimestamp != null) {
-            System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
-            System.out.println(header("  Processing timestamp: " + previousTimestamp));
-            System.out.println(bold(colorize("-------------------------------------------------------------------", CYAN)));
-            System.out.println("  " + info("Stop counts: ") + stopCounts);
-            System.out.println();
-
-            processDataCycle(stopCounts, previousCounts);
-            printPredictedFullness();
-
-            System.out.println();
-            System.out.println("  " + info("Active vehicles: ") + highlight(String.valueOf(vehicles.size())));
-            System.out.println("  " + info("Scheduled vehicles: ") + highlight(String.valueOf(scheduledVehicles.size())));
-            System.out.println();
-            processedCycles++;
+        // People waiting at every stop, once per stop even if shared by several routes
+        List<Stop> stops = stopRegistry.getStops();
+        out.writeInt(stops.size());
+        for (Stop stop : stops) {
+            out.writeInt(stop.getId());
+            out.writeInt(stop.getPeopleCount());
+        }
+
+        // Each stop's trend, which the removal check reads
+        stopTrends.write(out);
+
+        out.writeInt(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            StateStore.writeVehicle(out, vehicle);
+            out.writeByte(getNextEvent(vehicle).ordinal());
+            out.writeInt(getNextEventCycle(vehicle));
+        }
+        out.writeInt(scheduledVehicles.size());
+        for (Vehicle vehicle : scheduledVehicles) {
+            StateStore.writeVehicle(out, vehicle);
         }
+    }
 
+    /**
+     * Replace the current state with one written by writeState. Routes must already be set up.
+     */
+    void readState(ByteBuffer in) throws IOException {
+        processedCycles = in.getInt();
+        currentCycleTimestamp = in.getInt();
+        resumeAfterCycles = processedCycles;
+        cycleCount = in.getInt();
+        int routeCount = in.getInt();
+        if (routeCount != routes.size()) {
+            throw new IOException("Snapshot has " + routeCount + " routes, " + routes.size() + " are set up");
+        }
+        for (int ordinal = 0; ordinal < routeCount; ordinal++) {
+            removalState[ordinal] = in.getInt();
+        }
+        nextVehicleId = in.getInt();
+
+        for (int i = in.getInt(); i > 0; i--) {
+            int stopId = in.getInt();
+            int peopleCount = in.getInt();
+            Stop stop = stopRegistry.getStop(stopId);
+            if (stop == null) {
+                throw new IOException("Snapshot stop " + stopId + " is not on any route");
+            }
+            stop.updatePeopleCount(peopleCount);
+        }
+
+        cycleCounts = new StopCounts(stopOrdinals);
+        cycleTimestamp = -1;
+        stopTrends.read(in);
+
+        Map<String, Route> routesById = new HashMap<>();
+        for (Route route : routes) {
+            routesById.put(route.getRouteId(), route);
+        }
+        headroomQueue.clear();
+        utilization.clearVehicles();
+        for (Vehicle vehicle : vehicles) {
+            fleet.release(vehicle);
+        }
+        vehicles.clear();
+        vehicleIndexes.clear();
+        scheduledVehicles.clear();
+        events.reset(cycleCount);
+        for (int i = in.getInt(); i > 0; i--) {
+            Vehicle vehicle = StateStore.readVehicle(in, routesById);
+            addVehicle(vehicle);
+            scheduleEvent(vehicle, VEHICLE_EVENTS[in.get()], in.getInt());
+        }
+        for (int i = in.getInt(); i > 0; i--) {
+            scheduledVehicles.add(StateStore.readVehicle(in, routesById));
+        }
+    }
+
+    /**
+     * Process one logged cycle (records from..to in the log) silently, as part of a restore:
+     * no console output, no decision events and no logging it again.
+     */
+    void replayLoggedCycle(ByteBuffer entries, int from, int to) {
+        boolean wasHeadless = headless;
+        DecisionLog log = decisionLog;
+        StateStore store = stateStore;
+        headless = true;
+        decisionLog = null;
+        stateStore = null;
+        for (int position = from; position < to; position += IngestServer.RECORD_SIZE) {
+            acceptRecord(entries.getInt(position), entries.getInt(position + 4), entries.getInt(position + 8));
+        }
+        endCycle();
+        resumeAfterCycles = processedCycles;
+        headless = wasHeadless;
+        decisionLog = log;
+        stateStore = store;
+    }
+
+    private void printStartBanner() {
+        if (headless) {
+            return;
+        }
+        System.out.println(bold(colorize("===============================================================", CYAN)));
+        System.out.println(bold(colorize("           Starting Scheduling System", CYAN)));
+        System.out.println(bold(colorize("===============================================================", CYAN)) + "\n");
+    }
+
+    private void printCompleteBanner() {
+        if (headless) {
+            return;
+        }
         System.out.println(bold(colorize("===============================================================", CYAN)));
         System.out.println(success("  [OK] Processed " + processedCycles + " time cycles"));
         System.out.println(bold(colorize("===============================================================", CYAN)));
         System.out.println(bold(colorize("           Scheduling Complete", GREEN)) + "\n");
     }
 
-    public static void main(String[] args) {
-        // Determine which data file to use based on command line argument
-        String dataFile = "dataIncrease.txt";
-        if (args.length > 0) {
-            dataFile = args[0];
+    public void startScheduling() {
+        // Since our sample data is already grouped by timestamp and chronologically sorted,
+        // we can simply stream it in order and process whenever the timestamp changes.
+        // Records are parsed one at a time into a reused record, so the file is never held in memory.
+        printStartBanner();
+
+        if (dataFilePaths.size() > 1) {
+            mergeDataFiles();
+        } else {
+            try (DataReader.RecordCursor cursor = dataReader.openCursor()) {
+                DataReader.CountRecord record = cursor.getRecord();
+                // Cycles already processed before the restart are skipped by count, not by
+                // timestamp, which starts over at midnight
+                int cyclesToSkip = resumeAfterCycles;
+                int skippedTimestamp = -1;
+                while (cursor.next()) {
+                    int timestamp = record.getSecondsOfDay();
+                    if (timestamp == skippedTimestamp) {
+                        continue; // Rest of a skipped cycle
+                    }
+                    if (cyclesToSkip > 0) {
+                        cyclesToSkip--;
+                        skippedTimestamp = timestamp;
+                        continue;
+                    }
+                    skippedTimestamp = -1;
+                    acceptRecord(record.getStopId(), record.getCrowdCount(), timestamp);
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading data file: " + e.getMessage());
+            }
         }
-        
-        // Initialize system
-        Scheduler scheduler = new Scheduler(dataFile);
-        
+
+        // Process last group of entries if any left
+        endCycle();
+
+        printCompleteBanner();
+    }
+
+    /**
+     * Read every data file at once, one cycle at a time in timestamp order (a k-way merge),
+     * processing each cycle as soon as its last record has been read.
+     */
+    private void mergeDataFiles() {
+        try (DataReader.MergedCursor cursor = DataReader.openMerged(dataFilePaths)) {
+            DataReader.CountRecord record = cursor.getRecord();
+            int cyclesToSkip = resumeAfterCycles;
+            while (cursor.nextCycle()) {
+                if (cyclesToSkip > 0) {
+                    cyclesToSkip--;
+                    continue; // Already processed before the restart
+                }
+                while (cursor.next()) {
+                    acceptRecord(record.getStopId(), record.getCrowdCount(), record.getSecondsOfDay());
+                }
+                endCycle();
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading data files: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run the scheduler from a live stream of binary count records instead of a file.
+     * Serves producers on the given address until stopLiveIngest() is called.
+     * With a coalesce interval (>= 0), only the latest count per stop is kept and cycles run
+     * on that interval (or on producer end-of-cycle markers if 0); a negative interval
+     * processes every record in order.
+     */
+    public void startLiveIngest(String address, long coalesceIntervalMillis) {
+        printStartBanner();
+        if (coalesceIntervalMillis > 0) {
+            metrics.setIngestIntervalMillis(coalesceIntervalMillis);
+        }
+
+        try (IngestServer server = coalesceIntervalMillis < 0
+                 ? new IngestServer(this, address)
+                 : new IngestServer(this, address, coalesceIntervalMillis)) {
+            if (!headless) {
+                System.out.println("  " + info("Listening for count producers on ") + highlight(server.getAddressDescription()));
+                System.out.println();
+            }
+            liveIngest = server;
+            if (liveIngestStopped) {
+                server.stop(); // Stopped while the server was being opened
+            }
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Error in live ingest: " + e.getMessage());
+        } finally {
+            liveIngest = null;
+        }
+
+        printCompleteBanner();
+    }
+
+    /**
+     * Make startLiveIngest process the records received so far and return.
+     * May be called from any thread, before or while it serves.
+     */
+    public void stopLiveIngest() {
+        liveIngestStopped = true;
+        IngestServer server = liveIngest;
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Set up the network the sample data files are for: one route of 5 stops with two
+     * vehicles already on it.
+     */
+    static void addSampleNetwork(Scheduler scheduler, double deploymentThreshold) {
         // Create route with 5 stops
-        Route route = new Route("R1", "Route 1");
         Stop stop1 = new Stop(1, "Stop A");
         Stop stop2 = new Stop(2, "Stop B");
         Stop stop3 = new Stop(3, "Stop C");
         Stop stop4 = new Stop(4, "Stop D");
         Stop stop5 = new Stop(5, "Stop E");
-        
-        route.addStop(stop1);
-        route.addStop(stop2);
-        route.addStop(stop3);
-        route.addStop(stop4);
-        route.addStop(stop5);
+        Route route = new Route("R1", "Route 1", List.of(stop1, stop2, stop3, stop4, stop5), deploymentThreshold);
         
         // Add route to scheduler
-        scheduler.getRoutes().add(route);
+        scheduler.addRoute(route);
         
         // Create initial vehicles and attach to route
         // Vehicles start in PRESENT state at their initial stops
@@ -468,9 +1213,194 @@ public class Scheduler {
         
         // Initialize next vehicle ID to 3 since we already have V1 and V2
         scheduler.nextVehicleId = 3;
+    }
+
+    private static final Set<String> OPTIONS_WITH_VALUES = Set.of("--listen", "--coalesce", "--events", "--state",
+        "--snapshot-every", "--parallel", "--history", "--history-file");
+
+    public static void main(String[] args) {
+        // Determine which data file(s) to use based on command line arguments; several files
+        // (e.g. one per camera) are merged in timestamp order. Options:
+        //   --listen <port | unix socket path>  take live counts instead of a file
+        //   --coalesce <cycle millis>           with --listen, keep only the latest count per stop
+        //   --headless                          no console report, decisions go to the event log
+        //   --events <console | file | tcp:host:port>  where decision events are written
+        //   --state <directory>                 snapshot state and log cycles there; restore on start
+        //   --snapshot-every <cycles>           cycles between state snapshots (default 60)
+        //   --parallel <threads>                run each route's cycle work in parallel (default 1)
+        //   --history <counts per stop>         keep each stop's recent counts off the heap
+        //   --history-file <path>               with --history, keep them in this memory-mapped file
+        List<String> dataFiles = new ArrayList<>();
+        String listenAddress = null;
+        long coalesceIntervalMillis = -1;
+        boolean headless = false;
+        String eventsTarget = null;
+        String stateDirectory = null;
+        int snapshotInterval = 60;
+        int parallelism = 1;
+        int historySlots = 0;
+        String historyFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (OPTIONS_WITH_VALUES.contains(args[i]) && i + 1 == args.length) {
+                System.err.println("Missing value for option: " + args[i]);
+                return;
+            }
+            switch (args[i]) {
+                case "--listen":
+                    listenAddress = args[++i];
+                    break;
+                case "--coalesce":
+                    coalesceIntervalMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--headless":
+                    headless = true;
+                    break;
+                case "--events":
+                    eventsTarget = args[++i];
+                    break;
+                case "--state":
+                    stateDirectory = args[++i];
+                    break;
+                case "--snapshot-every":
+                    snapshotInterval = Integer.parseInt(args[++i]);
+                    break;
+                case "--parallel":
+                    parallelism = Integer.parseInt(args[++i]);
+                    break;
+                case "--history":
+                    historySlots = Integer.parseInt(args[++i]);
+                    break;
+                case "--history-file":
+                    historyFile = args[++i];
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Unknown option: " + args[i]);
+                        return;
+                    }
+                    dataFiles.add(args[i]);
+            }
+        }
+        if (dataFiles.isEmpty()) {
+            dataFiles.add("dataIncrease.txt");
+        }
+        if (headless && eventsTarget == null) {
+            eventsTarget = "console";
+        }
+        
+        // Initialize system
+        Scheduler scheduler = new Scheduler(dataFiles);
+        scheduler.setParallelism(parallelism);
+        
+        addSampleNetwork(scheduler, Route.DEFAULT_DEPLOYMENT_THRESHOLD);
+
+        // Recent counts of every stop, for forecasting and dashboards
+        StopHistory stopHistory = null;
+        if (historySlots > 0) {
+            StopOrdinals ordinals = scheduler.getStopRegistry().getOrdinals();
+            try {
+                stopHistory = historyFile == null ? new StopHistory(ordinals, historySlots)
+                                                  : new StopHistory(ordinals, historySlots, Path.of(historyFile));
+                scheduler.setStopHistory(stopHistory);
+            } catch (IOException e) {
+                System.err.println("Error opening stop history file: " + e.getMessage());
+            }
+        }
+
+        // Stage latencies and counters are published over JMX (fyp.scheduler domain)
+        try {
+            scheduler.getMetrics().register();
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBeans: " + e.getMessage());
+        }
+
+        // Pick up where a previous run left off: load its snapshot and replay the cycles logged since
+        StateStore stateStore = null;
+        if (stateDirectory != null) {
+            try {
+                stateStore = new StateStore(Path.of(stateDirectory), snapshotInterval);
+                int replayed = stateStore.restore(scheduler);
+                if (replayed >= 0 && !headless) {
+                    System.out.println(scheduler.info("Restored state after " + scheduler.processedCycles +
+                                       " cycles (" + replayed + " replayed from the cycle log)") + "\n");
+                }
+                scheduler.setStateStore(stateStore);
+            } catch (IOException e) {
+                // Never make decisions from half-restored state, or overwrite state that could not be read
+                System.err.println("Error restoring scheduler state: " + e.getMessage());
+                return;
+            }
+        }
 
-        // Start scheduling system - processes data chronologically
-        scheduler.startScheduling();
+        // Decision events are written asynchronously so output never holds up a cycle
+        scheduler.setHeadless(headless);
+        DecisionLog decisionLog = null;
+        if (eventsTarget != null) {
+            try {
+                decisionLog = new DecisionLog(4096, List.of(DecisionSink.forTarget(eventsTarget)));
+                scheduler.setDecisionLog(decisionLog);
+            } catch (IOException e) {
+                System.err.println("Error opening decision event output: " + e.getMessage());
+            }
+        }
+
+        // Live ingest runs until the process is stopped: on Ctrl-C or kill, stop serving and
+        // keep the JVM up until the snapshot is written and the outputs below are closed
+        CountDownLatch finished = new CountDownLatch(1);
+        if (listenAddress != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                scheduler.stopLiveIngest();
+                try {
+                    finished.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "scheduler-shutdown"));
+        }
+
+        try {
+            // Start scheduling system - processes data chronologically
+            if (listenAddress != null) {
+                scheduler.startLiveIngest(listenAddress, coalesceIntervalMillis);
+            } else {
+                scheduler.startScheduling();
+            }
+
+            closeOutputs(scheduler, stateStore, decisionLog, stopHistory);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Save the final state and close everything written while scheduling.
+     */
+    private static void closeOutputs(Scheduler scheduler, StateStore stateStore, DecisionLog decisionLog,
+                                     StopHistory stopHistory) {
+        if (stateStore != null) {
+            try {
+                stateStore.snapshot(scheduler);
+                stateStore.close();
+            } catch (IOException e) {
+                System.err.println("Error writing state snapshot: " + e.getMessage());
+            }
+        }
+
+        if (decisionLog != null) {
+            try {
+                decisionLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing decision event output: " + e.getMessage());
+            }
+        }
+
+        if (stopHistory != null) {
+            try {
+                stopHistory.close();
+            } catch (IOException e) {
+                System.err.println("Error closing stop history file: " + e.getMessage());
+            }
+        }
     }
 }
 
@@ -0,0 +1,82 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for each processed cycle and its stages, so a slow cycle in
+ * a recording can be traced back to the timestamp in the input feed that caused it.
+ *
+ * Record with e.g. java -XX:StartFlightRecording:filename=scheduler.jfr Scheduler ...
+ * When no recording is running, creating and committing an event costs next to nothing
+ * (the JIT removes the allocation), and fields are only filled in when an event is kept.
+ */
+public final class SchedulerEvents {
+    private SchedulerEvents() {
+    }
+
+    /**
+     * Fields shared by the cycle event and all stage events.
+     */
+    @Category({"Scheduler"})
+    abstract static class Stage extends Event {
+        @Label("Cycle Timestamp")
+        @Description("Timestamp of the input cycle being processed (HH:MM:SS)")
+        String cycleTimestamp;
+
+        @Label("Vehicles Examined")
+        int vehiclesExamined;
+
+        @Label("Prediction Evaluations")
+        @Description("Predicted fullness lookups for a vehicle at a future stop")
+        int predictionEvaluations;
+
+        /**
+         * End the event and commit it with the given details if the recording wants it.
+         */
+        void finish(int secondsOfDay, int vehicles, int predictions) {
+            end();
+            if (shouldCommit()) {
+                cycleTimestamp = secondsOfDay >= 0 ? DataReader.formatTime(secondsOfDay) : null;
+                vehiclesExamined = vehicles;
+                predictionEvaluations = predictions;
+                commit();
+            }
+        }
+    }
+
+    @Name("fyp.scheduler.Cycle")
+    @Label("Scheduling Cycle")
+    @Description("One processDataCycle invocation, with totals over its stages")
+    static final class Cycle extends Stage {
+    }
+
+    @Name("fyp.scheduler.StopCountUpdate")
+    @Label("Stop Count Update")
+    @Description("Applying the cycle's crowd counts to the route stops")
+    static final class StopCountUpdate extends Stage {
+    }
+
+    @Name("fyp.scheduler.VehicleTransitions")
+    @Label("Vehicle State Transitions")
+    @Description("Advancing vehicles through the arriving/present/departing stages and retiring finished ones")
+    static final class VehicleTransitions extends Stage {
+    }
+
+    @Name("fyp.scheduler.DeploymentCheck")
+    @Label("Deployment Check")
+    static final class DeploymentCheck extends Stage {
+    }
+
+    @Name("fyp.scheduler.RemovalCheck")
+    @Label("Removal Check")
+    static final class RemovalCheck extends Stage {
+    }
+
+    @Name("fyp.scheduler.Render")
+    @Label("Report Rendering")
+    @Description("Building and printing the predicted fullness report (never in headless mode)")
+    static final class Render extends Stage {
+    }
+}
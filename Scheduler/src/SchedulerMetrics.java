@@ -0,0 +1,200 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Self-measurement of a Scheduler: per-stage latency histograms, decision counters and
+ * fleet gauges. Everything recorded per cycle is allocation-free; values are read from
+ * other threads (JMX) without locking.
+ *
+ * Published as platform MBeans under the fyp.scheduler domain:
+ *     fyp.scheduler:type=Scheduler                      counters and gauges
+ *     fyp.scheduler:type=StageLatency,stage=<stage>     one histogram per stage
+ */
+public class SchedulerMetrics implements SchedulerMetricsMBean {
+    public static final String DOMAIN = "fyp.scheduler";
+
+    // Stage latencies: the whole cycle and each of its stages
+    final LatencyHistogram cycle = new LatencyHistogram();
+    final LatencyHistogram updateStopCounts = new LatencyHistogram();
+    final LatencyHistogram deploymentCheck = new LatencyHistogram();
+    final LatencyHistogram removalCheck = new LatencyHistogram();
+    final LatencyHistogram report = new LatencyHistogram(); // Console rendering, not run when headless
+
+    private final AtomicLong processedCycles = new AtomicLong();
+    private final AtomicLong deployments = new AtomicLong();
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicLong blockedRemovals = new AtomicLong();
+    private final AtomicLong retiredVehicles = new AtomicLong();
+    private final AtomicLong thresholdBreaches = new AtomicLong();
+    private volatile int activeVehicles;
+    private volatile int scheduledVehicles;
+    private volatile int surgingStops;
+    private volatile int decayingStops;
+    private volatile double peakPredictedFullness; // Written by the scheduler thread only
+    private volatile long configuredIntervalMillis; // 0 = derive from cycle timestamps
+    private volatile long observedIntervalMillis;
+    private int lastCycleTimestamp = -1; // Scheduler thread only
+
+    void cycleProcessed(int secondsOfDay, int active, int scheduled) {
+        if (lastCycleTimestamp >= 0 && secondsOfDay > lastCycleTimestamp) {
+            observedIntervalMillis = (secondsOfDay - lastCycleTimestamp) * 1000L;
+        }
+        lastCycleTimestamp = secondsOfDay;
+        activeVehicles = active;
+        scheduledVehicles = scheduled;
+        processedCycles.incrementAndGet();
+    }
+
+    void trendsUpdated(int surging, int decaying) {
+        surgingStops = surging;
+        decayingStops = decaying;
+    }
+
+    void fullnessPredicted(double peakFullness) {
+        if (peakFullness > peakPredictedFullness) {
+            peakPredictedFullness = peakFullness;
+        }
+    }
+
+    void deployed() {
+        deployments.incrementAndGet();
+    }
+
+    void removed() {
+        removals.incrementAndGet();
+    }
+
+    void removalBlocked() {
+        blockedRemovals.incrementAndGet();
+    }
+
+    void retired() {
+        retiredVehicles.incrementAndGet();
+    }
+
+    void thresholdBreached() {
+        thresholdBreaches.incrementAndGet();
+    }
+
+    /**
+     * Set when cycles run on a fixed interval rather than on data timestamps.
+     */
+    public void setIngestIntervalMillis(long intervalMillis) {
+        this.configuredIntervalMillis = intervalMillis;
+    }
+
+    public LatencyHistogram getCycleLatency() {
+        return cycle;
+    }
+
+    public LatencyHistogram getUpdateStopCountsLatency() {
+        return updateStopCounts;
+    }
+
+    public LatencyHistogram getDeploymentCheckLatency() {
+        return deploymentCheck;
+    }
+
+    public LatencyHistogram getRemovalCheckLatency() {
+        return removalCheck;
+    }
+
+    public LatencyHistogram getReportLatency() {
+        return report;
+    }
+
+    /**
+     * Register this scheduler's MBeans with the platform MBean server, replacing any
+     * registered by an earlier scheduler in the same JVM.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        registerReplacing(server, this, new ObjectName(DOMAIN + ":type=Scheduler"));
+        registerStage(server, "cycle", cycle);
+        registerStage(server, "updateStopCounts", updateStopCounts);
+        registerStage(server, "deploymentCheck", deploymentCheck);
+        registerStage(server, "removalCheck", removalCheck);
+        registerStage(server, "report", report);
+    }
+
+    private static void registerStage(MBeanServer server, String stage, LatencyHistogram histogram) throws JMException {
+        registerReplacing(server, histogram, new ObjectName(DOMAIN + ":type=StageLatency,stage=" + stage));
+    }
+
+    private static void registerReplacing(MBeanServer server, Object mbean, ObjectName name) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+    }
+
+    @Override
+    public long getProcessedCycles() {
+        return processedCycles.get();
+    }
+
+    @Override
+    public long getDeployments() {
+        return deployments.get();
+    }
+
+    @Override
+    public long getRemovals() {
+        return removals.get();
+    }
+
+    @Override
+    public long getBlockedRemovals() {
+        return blockedRemovals.get();
+    }
+
+    @Override
+    public long getRetiredVehicles() {
+        return retiredVehicles.get();
+    }
+
+    @Override
+    public long getThresholdBreaches() {
+        return thresholdBreaches.get();
+    }
+
+    @Override
+    public int getActiveVehicles() {
+        return activeVehicles;
+    }
+
+    @Override
+    public int getScheduledVehicles() {
+        return scheduledVehicles;
+    }
+
+    @Override
+    public int getSurgingStops() {
+        return surgingStops;
+    }
+
+    @Override
+    public int getDecayingStops() {
+        return decayingStops;
+    }
+
+    @Override
+    public double getPeakPredictedFullness() {
+        return peakPredictedFullness;
+    }
+
+    @Override
+    public long getIngestIntervalMillis() {
+        long configured = configuredIntervalMillis;
+        return configured > 0 ? configured : observedIntervalMillis;
+    }
+
+    @Override
+    public double getCycleBudgetUsedPercent() {
+        long interval = getIngestIntervalMillis();
+        return interval == 0 ? 0 : cycle.getP99Millis() * 100 / interval;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * JMX view of the scheduler's counters and gauges. Stage latencies are published
+ * separately, one LatencyHistogramMBean per stage.
+ */
+public interface SchedulerMetricsMBean {
+    long getProcessedCycles();
+
+    long getDeployments();
+
+    long getRemovals();
+
+    long getBlockedRemovals();
+
+    long getRetiredVehicles();
+
+    long getThresholdBreaches();
+
+    int getActiveVehicles();
+
+    int getScheduledVehicles();
+
+    /**
+     * Stops reported in the last cycle whose count surged above their recent level.
+     */
+    int getSurgingStops();
+
+    /**
+     * Stops reported in the last cycle whose count has stayed under half its earlier level.
+     */
+    int getDecayingStops();
+
+    /**
+     * Highest predicted fullness of any vehicle in any cycle so far, as a share of its
+     * capacity (1.0 = full).
+     */
+    double getPeakPredictedFullness();
+
+    /**
+     * Time between cycles: the coalescing interval when live ingest runs on one,
+     * otherwise the gap between the last two cycle timestamps. 0 until known.
+     */
+    long getIngestIntervalMillis();
+
+    /**
+     * p99 cycle time as a percentage of the ingest interval; alert well before 100.
+     */
+    double getCycleBudgetUsedPercent();
+}
@@ -0,0 +1,233 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Durable scheduler state for fast restarts: a periodic binary snapshot of the whole
+ * Scheduler plus an append-only log of the cycle inputs received since that snapshot.
+ *
+ * On start, the snapshot is memory-mapped and loaded, then only the cycles in the log are
+ * replayed, instead of the whole day's input. Every cycle's counts are appended to the log
+ * before the cycle is processed. Every snapshotInterval cycles (and on close) a new
+ * snapshot replaces the old one, written to a temporary file and renamed into place, and
+ * the log is emptied.
+ *
+ * Log entries use the IngestServer record format (three big-endian ints). Each cycle is
+ *     CYCLE_START, sequence, timestamp | stopId, count, timestamp ... | END_OF_CYCLE, sequence, timestamp
+ * where sequence is the scheduler's processed cycle number. A cycle cut short by a crash
+ * (no END_OF_CYCLE) is discarded, and cycles already in the snapshot (a crash between
+ * renaming the snapshot and emptying the log) are skipped by sequence.
+ *
+ * The log is written but not forced to disk each cycle, so it survives a process crash or
+ * redeploy but not necessarily an operating system crash.
+ */
+public class StateStore implements Closeable {
+    static final int SNAPSHOT_MAGIC = 0x53434844; // "SCHD"
+    static final int SNAPSHOT_VERSION = 6;
+    private static final int CYCLE_START = -2; // Stop id marking the start of a logged cycle
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final int snapshotInterval; // Cycles between snapshots
+    private FileChannel log; // Opened by restore()
+    private ByteBuffer logBuffer = ByteBuffer.allocateDirect(IngestServer.RECORD_SIZE * 1024);
+    private int cyclesSinceSnapshot = 0;
+
+    public StateStore(Path directory, int snapshotInterval) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotPath = directory.resolve("scheduler.snapshot");
+        this.logPath = directory.resolve("cycles.log");
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    /**
+     * Load the latest snapshot into the scheduler (replacing its vehicles) and replay the
+     * logged cycles after it, then open the log for appending. The scheduler's routes must
+     * already be set up. Returns the number of cycles replayed from the log, or -1 if
+     * there was no saved state.
+     */
+    public int restore(Scheduler scheduler) throws IOException {
+        long snapshotSequence = 0;
+        boolean restored = false;
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (snapshot.remaining() < 8 || snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Not a scheduler snapshot (or from an incompatible version): " + snapshotPath);
+                }
+                scheduler.readState(snapshot);
+                snapshotSequence = scheduler.getProcessedCycles();
+                restored = true;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Corrupt scheduler snapshot: " + snapshotPath, e);
+            }
+        }
+
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long logSize = log.size();
+        long validEnd = 0; // End of the last complete cycle
+        int replayed = 0;
+        if (logSize > 0) {
+            ByteBuffer entries = log.map(FileChannel.MapMode.READ_ONLY, 0, logSize);
+            while (entries.remaining() >= IngestServer.RECORD_SIZE) {
+                int cycleStart = entries.position();
+                if (entries.getInt() != CYCLE_START) {
+                    break; // Corrupt: keep what came before
+                }
+                long sequence = entries.getInt() & 0xFFFFFFFFL;
+                entries.getInt(); // Timestamp, repeated on every record
+                int cycleEnd = findCycleEnd(entries);
+                if (cycleEnd < 0) {
+                    break; // Cut short by a crash
+                }
+                if (sequence > snapshotSequence) {
+                    scheduler.replayLoggedCycle(entries, cycleStart + IngestServer.RECORD_SIZE, cycleEnd);
+                    replayed++;
+                    restored = true;
+                }
+                entries.position(cycleEnd + IngestServer.RECORD_SIZE);
+                validEnd = entries.position();
+            }
+        }
+        log.truncate(validEnd);
+        log.position(validEnd);
+        cyclesSinceSnapshot = replayed;
+        return restored ? replayed : -1;
+    }
+
+    /**
+     * Position of the END_OF_CYCLE record closing the cycle whose records start at the
+     * buffer's position, or -1 if the log ends first.
+     */
+    private static int findCycleEnd(ByteBuffer entries) {
+        for (int position = entries.position(); position + IngestServer.RECORD_SIZE <= entries.limit();
+             position += IngestServer.RECORD_SIZE) {
+            if (entries.getInt(position) == IngestServer.END_OF_CYCLE) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append a cycle's counts to the log, before the cycle is processed.
+     */
+    void logCycle(long sequence, int secondsOfDay, StopCounts counts) throws IOException {
+        logBuffer.clear();
+        append(CYCLE_START, (int) sequence, secondsOfDay);
+        StopOrdinals ordinals = counts.getOrdinals();
+        for (int ordinal = counts.nextDirty(0); ordinal >= 0; ordinal = counts.nextDirty(ordinal + 1)) {
+            append(ordinals.stopIdOf(ordinal), counts.get(ordinal), secondsOfDay);
+        }
+        append(IngestServer.END_OF_CYCLE, (int) sequence, secondsOfDay);
+        logBuffer.flip();
+        while (logBuffer.hasRemaining()) {
+            log.write(logBuffer);
+        }
+    }
+
+    private void append(int first, int second, int third) {
+        if (logBuffer.remaining() < IngestServer.RECORD_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(logBuffer.capacity() * 2);
+            logBuffer.flip();
+            larger.put(logBuffer);
+            logBuffer = larger;
+        }
+        logBuffer.putInt(first).putInt(second).putInt(third);
+    }
+
+    /**
+     * Called after each processed cycle: takes a snapshot every snapshotInterval cycles.
+     */
+    void cycleCompleted(Scheduler scheduler) throws IOException {
+        if (++cyclesSinceSnapshot >= snapshotInterval) {
+            snapshot(scheduler);
+        }
+    }
+
+    /**
+     * Replace the snapshot with the scheduler's current state and empty the log.
+     */
+    public void snapshot(Scheduler scheduler) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            scheduler.writeState(out);
+        }
+        Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (log != null) {
+            log.truncate(0);
+            log.position(0);
+        }
+        cyclesSinceSnapshot = 0;
+    }
+
+    static void writeVehicle(DataOutputStream out, Vehicle vehicle) throws IOException {
+        writeString(out, vehicle.getId());
+        writeString(out, vehicle.getRoute().getRouteId());
+        out.writeInt(vehicle.getCapacity());
+        out.writeInt(vehicle.getStopIndex());
+        out.writeByte(vehicle.getState().ordinal());
+        out.writeInt(vehicle.getPassengerCount());
+        out.writeInt(vehicle.getPassengersWhenPresent());
+        out.writeInt(vehicle.getDwellCycles());
+        out.writeInt(vehicle.getTravelCycles());
+    }
+
+    static Vehicle readVehicle(ByteBuffer in, Map<String, Route> routesById) throws IOException {
+        String id = readString(in);
+        String routeId = readString(in);
+        Route route = routesById.get(routeId);
+        if (route == null) {
+            throw new IOException("Snapshot vehicle " + id + " is on unknown route " + routeId);
+        }
+        int capacity = in.getInt();
+        int stopIndex = in.getInt();
+        VehicleState state = VehicleState.values()[in.get()];
+        int passengerCount = in.getInt();
+        int passengersWhenPresent = in.getInt();
+        Vehicle vehicle = new Vehicle(id, route, capacity, stopIndex, state, passengerCount, passengersWhenPresent);
+        vehicle.setDwellCycles(in.getInt());
+        vehicle.setTravelCycles(in.getInt());
+        return vehicle;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+}
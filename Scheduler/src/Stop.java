@@ -1,7 +1,12 @@
+import java.util.Arrays;
+
 public class Stop {
+    private static final StopListener[] NO_LISTENERS = new StopListener[0];
+
     private int id;
     private String name;
     private int peopleCount;
+    private StopListener[] listeners = NO_LISTENERS; // Told about every change to peopleCount
 
     public Stop(int id, String name) {
         this.id = id;
@@ -14,7 +19,18 @@ public class Stop {
     }
 
     public void updatePeopleCount(int count) {
+        int previousCount = peopleCount;
         this.peopleCount = count;
+        if (count != previousCount) {
+            for (StopListener listener : listeners) {
+                listener.peopleCountChanged(this, previousCount);
+            }
+        }
+    }
+
+    public void addListener(StopListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
     }
 
     public int getId() {
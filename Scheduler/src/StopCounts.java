@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Crowd counts reported in the current cycle and in the cycle before it.
+ *
+ * Counts live in two int arrays indexed by dense stop ordinal, and the stops reported
+ * in each cycle are tracked in a dirty bitset. At a cycle boundary the two buffers are
+ * swapped instead of copied, so collecting counts does no boxing and no per-cycle
+ * allocation once the arrays have grown to the number of stops.
+ */
+public class StopCounts {
+    private final StopOrdinals ordinals;
+    private int[] current;
+    private int[] previous;
+    private BitSet dirty; // Stops reported in the current cycle
+    private BitSet previousDirty; // Stops reported in the previous cycle
+    private boolean hasPrevious; // False until the first swap()
+
+    public StopCounts(StopOrdinals ordinals) {
+        this.ordinals = ordinals;
+        int length = Math.max(16, ordinals.size());
+        this.current = new int[length];
+        this.previous = new int[length];
+        this.dirty = new BitSet(length);
+        this.previousDirty = new BitSet(length);
+        this.hasPrevious = false;
+    }
+
+    /**
+     * Record a stop's count for the current cycle. A later count for the same stop
+     * in the same cycle replaces the earlier one.
+     */
+    public void put(int stopId, int count) {
+        int ordinal = ordinals.register(stopId);
+        if (ordinal >= current.length) {
+            int length = Math.max(ordinal + 1, current.length * 2);
+            current = Arrays.copyOf(current, length);
+            previous = Arrays.copyOf(previous, length);
+        }
+        current[ordinal] = count;
+        dirty.set(ordinal);
+    }
+
+    /**
+     * End the current cycle: it becomes the previous cycle, and the new current cycle starts empty.
+     */
+    public void swap() {
+        int[] counts = previous;
+        previous = current;
+        current = counts;
+        BitSet reported = previousDirty;
+        previousDirty = dirty;
+        dirty = reported;
+        dirty.clear();
+        hasPrevious = true;
+    }
+
+    /**
+     * Whether the stop with this ordinal was reported in the current cycle.
+     */
+    public boolean isDirty(int ordinal) {
+        return dirty.get(ordinal);
+    }
+
+    /**
+     * Next ordinal reported in the current cycle at or after fromOrdinal, or -1 if none.
+     */
+    public int nextDirty(int fromOrdinal) {
+        return dirty.nextSetBit(fromOrdinal);
+    }
+
+    /**
+     * Current count at a stop ordinal (0 if the stop was not reported this cycle).
+     */
+    public int get(int ordinal) {
+        return dirty.get(ordinal) ? current[ordinal] : 0;
+    }
+
+    /**
+     * Current count for a stop id (0 if the stop was not reported this cycle).
+     */
+    public int getById(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        return ordinal < 0 ? 0 : get(ordinal);
+    }
+
+    /**
+     * Previous cycle's count at a stop ordinal (0 if the stop was not reported then).
+     */
+    public int getPrevious(int ordinal) {
+        return previousDirty.get(ordinal) ? previous[ordinal] : 0;
+    }
+
+    /**
+     * Next ordinal reported in the previous cycle at or after fromOrdinal, or -1 if none.
+     */
+    public int nextPreviousDirty(int fromOrdinal) {
+        return previousDirty.nextSetBit(fromOrdinal);
+    }
+
+    /**
+     * Whether there is a previous cycle to compare against.
+     */
+    public boolean hasPrevious() {
+        return hasPrevious;
+    }
+
+    public boolean isEmpty() {
+        return dirty.isEmpty();
+    }
+
+    public StopOrdinals getOrdinals() {
+        return ordinals;
+    }
+
+    /**
+     * Current cycle's counts as {stopId=count, ...}, in stop ordinal order.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int ordinal = dirty.nextSetBit(0); ordinal >= 0; ordinal = dirty.nextSetBit(ordinal + 1)) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(ordinals.stopIdOf(ordinal)).append('=').append(current[ordinal]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The last slotsPerStop counts reported at every stop, with their timestamps, kept off the
+ * Java heap so a long history adds nothing for the garbage collector to trace or copy.
+ *
+ * Each stop ordinal owns a fixed-size ring in a direct buffer (or in a memory-mapped file,
+ * for histories larger than the direct memory limit):
+ *     appended | time, count | time, count | ...
+ * where time is in seconds counted on from midnight of the first cycle's day (so it keeps
+ * growing past midnight) and appended is the number of counts ever written, so the newest
+ * entry is in slot (appended - 1) % slotsPerStop. Appending overwrites the oldest entry in O(1).
+ * Rings are allocated STOPS_PER_CHUNK stops at a time as stops are registered.
+ *
+ * Appends come from the scheduling thread (or its stop-count tasks, each for its own stops).
+ * Read between cycles: a read concurrent with a cycle may see a ring being overwritten.
+ * Windows are in seconds, measured back from the latest cycle, and span midnight. Cycle
+ * timestamps are seconds of day: one more than half a day earlier than the cycle before
+ * is taken to be on the next day.
+ */
+public class StopHistory implements Closeable {
+    private static final int STOPS_PER_CHUNK = 1024;
+    private static final int ENTRY_BYTES = 8; // time, count
+    private static final int HEADER_BYTES = 4; // appended
+
+    private final StopOrdinals ordinals;
+    private final int slotsPerStop;
+    private final int stopBytes; // One stop's ring
+    private final FileChannel file; // null = direct buffers
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int latestTime = -1; // Time of the latest cycle (see the ring layout above)
+
+    /**
+     * History in direct buffers (limited by -XX:MaxDirectMemorySize).
+     */
+    public StopHistory(StopOrdinals ordinals, int slotsPerStop) {
+        this.ordinals = ordinals;
+        this.slotsPerStop = checkSlots(slotsPerStop);
+        this.stopBytes = HEADER_BYTES + slotsPerStop * ENTRY_BYTES;
+        this.file = null;
+    }
+
+    /**
+     * History in a memory-mapped file, which is replaced. The operating system pages it in
+     * and out, so it can be larger than memory.
+     */
+    public StopHistory(StopOrdinals ordinals, int slotsPerStop, Path path) throws IOException {
+        this.ordinals = ordinals;
+        this.slotsPerStop = checkSlots(slotsPerStop);
+        this.stopBytes = HEADER_BYTES + slotsPerStop * ENTRY_BYTES;
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static int checkSlots(int slotsPerStop) {
+        // A chunk is one buffer, so it must stay under 2 GB
+        int maxSlots = (Integer.MAX_VALUE / STOPS_PER_CHUNK - HEADER_BYTES) / ENTRY_BYTES;
+        if (slotsPerStop < 1 || slotsPerStop > maxSlots) {
+            throw new IllegalArgumentException("History slots per stop must be between 1 and " + maxSlots + ": " + slotsPerStop);
+        }
+        return slotsPerStop;
+    }
+
+    /**
+     * Allocate rings for ordinals below stopCount. Call before appending from several threads.
+     */
+    public void ensureCapacity(int stopCount) throws IOException {
+        int needed = (stopCount + STOPS_PER_CHUNK - 1) / STOPS_PER_CHUNK;
+        if (needed <= chunks.length) {
+            return;
+        }
+        int allocated = chunks.length;
+        chunks = Arrays.copyOf(chunks, needed);
+        int chunkBytes = STOPS_PER_CHUNK * stopBytes;
+        for (int chunk = allocated; chunk < needed; chunk++) {
+            // Both come zeroed: every ring starts empty
+            chunks[chunk] = file == null ? ByteBuffer.allocateDirect(chunkBytes)
+                                         : file.map(FileChannel.MapMode.READ_WRITE, (long) chunk * chunkBytes, chunkBytes);
+        }
+    }
+
+    /**
+     * Record a count reported at secondsOfDay. Rings must already be allocated for the ordinal.
+     */
+    void append(int ordinal, int secondsOfDay, int count) {
+        ByteBuffer chunk = chunks[ordinal / STOPS_PER_CHUNK];
+        int base = (ordinal % STOPS_PER_CHUNK) * stopBytes;
+        int appended = chunk.getInt(base);
+        int entry = entryOffset(base, appended);
+        chunk.putInt(entry, timeOf(secondsOfDay)); // latestTime only changes between cycles
+        chunk.putInt(entry + 4, count);
+        chunk.putInt(base, appended + 1);
+    }
+
+    /**
+     * Mark the end of a cycle's appends: windows are measured back from this time.
+     */
+    void cycleAppended(int secondsOfDay) {
+        latestTime = timeOf(secondsOfDay);
+    }
+
+    /**
+     * Time of a cycle timestamp that follows the latest cycle (see DataReader.timeAfter).
+     */
+    private int timeOf(int secondsOfDay) {
+        return latestTime < 0 ? secondsOfDay : (int) DataReader.timeAfter(latestTime, secondsOfDay);
+    }
+
+    /**
+     * Copy a stop's counts from the last windowSeconds (timestamps after the latest cycle's
+     * minus windowSeconds), oldest first. At most counts.length of the newest are copied.
+     * timestamps, if not null, receives each count's seconds of day. Returns the number copied.
+     */
+    public int getCounts(int stopId, int windowSeconds, int[] timestamps, int[] counts) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        if (ordinal < 0 || ordinal / STOPS_PER_CHUNK >= chunks.length) {
+            return 0;
+        }
+        ByteBuffer chunk = chunks[ordinal / STOPS_PER_CHUNK];
+        int base = (ordinal % STOPS_PER_CHUNK) * stopBytes;
+        int appended = chunk.getInt(base);
+        int available = Math.min(Math.min(appended, slotsPerStop), counts.length);
+        int after = latestTime - windowSeconds;
+        // Walk back from the newest entry to the start of the window
+        int found = 0;
+        while (found < available && chunk.getInt(entryOffset(base, appended - 1 - found)) > after) {
+            found++;
+        }
+        for (int i = 0; i < found; i++) {
+            int entry = entryOffset(base, appended - found + i);
+            if (timestamps != null) {
+                timestamps[i] = chunk.getInt(entry) % DataReader.SECONDS_PER_DAY;
+            }
+            counts[i] = chunk.getInt(entry + 4);
+        }
+        return found;
+    }
+
+    /**
+     * Average count reported at a stop in the last windowSeconds, or 0 if none was.
+     */
+    public double getAverage(int stopId, int windowSeconds) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        if (ordinal < 0 || ordinal / STOPS_PER_CHUNK >= chunks.length) {
+            return 0;
+        }
+        ByteBuffer chunk = chunks[ordinal / STOPS_PER_CHUNK];
+        int base = (ordinal % STOPS_PER_CHUNK) * stopBytes;
+        int appended = chunk.getInt(base);
+        int available = Math.min(appended, slotsPerStop);
+        int after = latestTime - windowSeconds;
+        long sum = 0;
+        int found = 0;
+        for (; found < available; found++) {
+            int entry = entryOffset(base, appended - 1 - found);
+            if (chunk.getInt(entry) <= after) {
+                break;
+            }
+            sum += chunk.getInt(entry + 4);
+        }
+        return found == 0 ? 0 : (double) sum / found;
+    }
+
+    private int entryOffset(int base, int index) {
+        return base + HEADER_BYTES + (index % slotsPerStop) * ENTRY_BYTES;
+    }
+
+    public StopOrdinals getOrdinals() {
+        return ordinals;
+    }
+
+    public int getSlotsPerStop() {
+        return slotsPerStop;
+    }
+
+    /**
+     * Seconds of day of the latest cycle appended, -1 if none.
+     */
+    public int getLatestTimestamp() {
+        return latestTime < 0 ? -1 : latestTime % DataReader.SECONDS_PER_DAY;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Told when a stop's people count changes, so per-route state that depends on the
+ * counts can be updated for the changed stops only.
+ */
+public interface StopListener {
+    void peopleCountChanged(Stop stop, int previousCount);
+}
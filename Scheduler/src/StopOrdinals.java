@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Assigns every stop id a dense ordinal (0, 1, 2, ...) in the order the ids are first seen,
+ * so per-stop state can live in plain arrays indexed by ordinal.
+ * Lookups use an open-addressing table over primitive ints (no boxing).
+ */
+public class StopOrdinals {
+    private int[] slotIds; // Stop id stored in each table slot
+    private int[] slotOrdinals; // Ordinal + 1 stored in each table slot (0 = empty slot)
+    private int[] stopIds; // Ordinal -> stop id
+    private int size;
+
+    public StopOrdinals() {
+        this.slotIds = new int[64];
+        this.slotOrdinals = new int[64];
+        this.stopIds = new int[32];
+        this.size = 0;
+    }
+
+    /**
+     * Ordinal of a stop id, or -1 if the id has not been registered.
+     */
+    public int ordinalOf(int stopId) {
+        int mask = slotIds.length - 1;
+        for (int slot = hash(stopId) & mask; slotOrdinals[slot] != 0; slot = (slot + 1) & mask) {
+            if (slotIds[slot] == stopId) {
+                return slotOrdinals[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ordinal of a stop id, assigning the next ordinal if the id is new.
+     */
+    public int register(int stopId) {
+        int ordinal = ordinalOf(stopId);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        if ((size + 1) * 2 > slotIds.length) {
+            rehash(slotIds.length * 2);
+        }
+        ordinal = size++;
+        if (ordinal == stopIds.length) {
+            stopIds = Arrays.copyOf(stopIds, stopIds.length * 2);
+        }
+        stopIds[ordinal] = stopId;
+        insert(stopId, ordinal);
+        return ordinal;
+    }
+
+    public int stopIdOf(int ordinal) {
+        return stopIds[ordinal];
+    }
+
+    /**
+     * Number of registered stops; ordinals run from 0 to size() - 1.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void insert(int stopId, int ordinal) {
+        int mask = slotIds.length - 1;
+        int slot = hash(stopId) & mask;
+        while (slotOrdinals[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slotIds[slot] = stopId;
+        slotOrdinals[slot] = ordinal + 1;
+    }
+
+    private void rehash(int capacity) {
+        slotIds = new int[capacity];
+        slotOrdinals = new int[capacity];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            insert(stopIds[ordinal], ordinal);
+        }
+    }
+
+    private static int hash(int stopId) {
+        int h = stopId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every stop in the network, by stop id: the one Stop instance for each id and the
+ * (route, position) pairs it is served at. An interchange served by many routes is a
+ * single Stop, so its count is updated once and every route through it sees the change.
+ *
+ * Entries are indexed by the scheduler's dense stop ordinals, so the stops reported in a
+ * cycle (the dirty ordinals of its StopCounts) lead straight to their Stop and routes: a
+ * count update touches only the stops that reported, not every stop of every route.
+ */
+public class StopRegistry {
+    private final StopOrdinals ordinals;
+    private Stop[] stops = new Stop[16]; // By ordinal, null for ids not on any route
+    private boolean[] counted = new boolean[16]; // Served before the last stop of some route
+    private Route[][] routesAt = new Route[16][]; // Routes serving each stop, in the order they were added
+    private int[][] positionsAt = new int[16][]; // The stop's position on each of those routes
+    private int stopCount = 0;
+
+    public StopRegistry(StopOrdinals ordinals) {
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Register a route's stops. A stop id already registered must be the same Stop instance.
+     */
+    public void addRoute(Route route) {
+        for (int position = 0; position < route.size(); position++) {
+            Stop stop = route.getStop(position);
+            Stop existing = getStop(stop.getId());
+            if (existing != null && existing != stop) {
+                throw new IllegalArgumentException("Route " + route.getRouteId() + " has its own stop " + stop.getId() +
+                                                   ", but " + existing.getName() + " already has that id");
+            }
+        }
+        for (int position = 0; position < route.size(); position++) {
+            Stop stop = route.getStop(position);
+            int ordinal = ordinals.register(stop.getId());
+            if (ordinal >= stops.length) {
+                int length = Math.max(ordinal + 1, stops.length * 2);
+                stops = Arrays.copyOf(stops, length);
+                counted = Arrays.copyOf(counted, length);
+                routesAt = Arrays.copyOf(routesAt, length);
+                positionsAt = Arrays.copyOf(positionsAt, length);
+            }
+            if (stops[ordinal] == null) {
+                stops[ordinal] = stop;
+                routesAt[ordinal] = new Route[0];
+                positionsAt[ordinal] = new int[0];
+                stopCount++;
+            }
+            int served = routesAt[ordinal].length;
+            routesAt[ordinal] = Arrays.copyOf(routesAt[ordinal], served + 1);
+            positionsAt[ordinal] = Arrays.copyOf(positionsAt[ordinal], served + 1);
+            routesAt[ordinal][served] = route;
+            positionsAt[ordinal][served] = position;
+            if (!route.isLastStop(position)) {
+                counted[ordinal] = true;
+            }
+        }
+    }
+
+    /**
+     * The stop with this id, or null if it is on no route.
+     */
+    public Stop getStop(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        return ordinal < 0 ? null : getStopAt(ordinal);
+    }
+
+    /**
+     * The stop with this ordinal, or null if it is on no route.
+     */
+    Stop getStopAt(int ordinal) {
+        return ordinal < stops.length ? stops[ordinal] : null;
+    }
+
+    /**
+     * Whether reported counts are kept for the stop with this ordinal: it is served before
+     * the last stop of at least one route (at a last stop passengers only get off).
+     */
+    boolean isCounted(int ordinal) {
+        return ordinal < counted.length && counted[ordinal];
+    }
+
+    /**
+     * Routes serving the stop with this id (empty if none), in the order they were added.
+     */
+    public List<Route> getRoutes(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        if (ordinal < 0 || getStopAt(ordinal) == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(routesAt[ordinal]));
+    }
+
+    /**
+     * Routes serving the stop with this ordinal, in the order they were added (null if none).
+     * The array is the registry's own: do not change it.
+     */
+    Route[] getRoutesAt(int ordinal) {
+        return ordinal < routesAt.length ? routesAt[ordinal] : null;
+    }
+
+    /**
+     * The stop's position on each route of getRoutes(stopId), in the same order.
+     */
+    public int[] getPositions(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        if (ordinal < 0 || getStopAt(ordinal) == null) {
+            return new int[0];
+        }
+        return positionsAt[ordinal].clone();
+    }
+
+    /**
+     * Every registered stop, once each, in stop ordinal order.
+     */
+    public List<Stop> getStops() {
+        List<Stop> all = new ArrayList<>(stopCount);
+        for (Stop stop : stops) {
+            if (stop != null) {
+                all.add(stop);
+            }
+        }
+        return all;
+    }
+
+    public int size() {
+        return stopCount;
+    }
+
+    public StopOrdinals getOrdinals() {
+        return ordinals;
+    }
+}
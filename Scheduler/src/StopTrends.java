@@ -0,0 +1,219 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming trend of every stop's crowd count: an exponentially weighted mean and variance
+ * of the counts and of their change per cycle (the slope), updated once per cycle from the
+ * stops reported in it. State lives in primitive arrays indexed by stop ordinal, so each
+ * reported stop costs O(1) and nothing is copied or scanned per cycle.
+ *
+ * Each update raises two signals for the stops reported in that cycle:
+ * - surging: the count is well above the stop's recent level (SURGE_SIGMAS standard
+ *   deviations and at least MIN_SURGE people above its mean)
+ * - decaying: the count has been under half of the level before the drop for
+ *   DECAY_CYCLES reports in a row, so a single low frame (e.g. a camera glitch) is not
+ *   taken as demand going away, and the slope is still negative (not recovering)
+ */
+public class StopTrends {
+    private static final double ALPHA = 0.3; // Weight of the newest count in the mean and variance
+    private static final double SLOPE_ALPHA = 0.5; // Weight of the newest change in the slope
+    private static final int WARMUP = 3; // Reports before a stop can surge
+    private static final double SURGE_SIGMAS = 3.0;
+    private static final int MIN_SURGE = 10;
+    private static final double DECAY_FRACTION = 0.5;
+    private static final int DECAY_CYCLES = 2;
+
+    private final StopOrdinals ordinals;
+    private int[] samples; // Reports seen, 0 = nothing known about the stop
+    private int[] last; // Most recent count
+    private double[] mean;
+    private double[] variance;
+    private double[] slope; // People per cycle
+    private int[] lowRun; // Reports in a row under DECAY_FRACTION of lowBaseline
+    private double[] lowBaseline; // Mean just before the current low run started
+    private int surgingStops = 0; // In the last update
+    private int decayingStops = 0;
+    private int[] surgingOrdinals = new int[16]; // The first surgingStops are the stops that surged
+    private int[] decayingOrdinals = new int[16];
+
+    public StopTrends(StopOrdinals ordinals) {
+        this.ordinals = ordinals;
+        int length = Math.max(16, ordinals.size());
+        this.samples = new int[length];
+        this.last = new int[length];
+        this.mean = new double[length];
+        this.variance = new double[length];
+        this.slope = new double[length];
+        this.lowRun = new int[length];
+        this.lowBaseline = new double[length];
+    }
+
+    private void ensureCapacity(int ordinal) {
+        if (ordinal >= samples.length) {
+            int length = Math.max(ordinal + 1, samples.length * 2);
+            samples = Arrays.copyOf(samples, length);
+            last = Arrays.copyOf(last, length);
+            mean = Arrays.copyOf(mean, length);
+            variance = Arrays.copyOf(variance, length);
+            slope = Arrays.copyOf(slope, length);
+            lowRun = Arrays.copyOf(lowRun, length);
+            lowBaseline = Arrays.copyOf(lowBaseline, length);
+        }
+    }
+
+    /**
+     * Take one cycle's counts: every stop reported in it is updated, and the surging and
+     * decaying stops among them are counted.
+     */
+    public void update(StopCounts counts) {
+        surgingStops = 0;
+        decayingStops = 0;
+        StopOrdinals countOrdinals = counts.getOrdinals(); // Normally the same ordinals as ours
+        for (int ordinal = counts.nextDirty(0); ordinal >= 0; ordinal = counts.nextDirty(ordinal + 1)) {
+            int stopOrdinal = countOrdinals == ordinals ? ordinal : ordinals.register(countOrdinals.stopIdOf(ordinal));
+            update(stopOrdinal, counts.get(ordinal));
+        }
+    }
+
+    private void update(int ordinal, int count) {
+        ensureCapacity(ordinal);
+        if (samples[ordinal] == 0) {
+            samples[ordinal] = 1;
+            last[ordinal] = count;
+            mean[ordinal] = count;
+            slope[ordinal] = 0;
+            return;
+        }
+        double meanBefore = mean[ordinal];
+        slope[ordinal] += SLOPE_ALPHA * ((count - last[ordinal]) - slope[ordinal]);
+        last[ordinal] = count;
+        if (samples[ordinal] >= WARMUP) {
+            double above = count - meanBefore;
+            if (above >= MIN_SURGE && above > SURGE_SIGMAS * Math.sqrt(variance[ordinal])) {
+                if (surgingStops == surgingOrdinals.length) {
+                    surgingOrdinals = Arrays.copyOf(surgingOrdinals, surgingStops * 2);
+                }
+                surgingOrdinals[surgingStops++] = ordinal;
+            }
+        }
+
+        if (lowRun[ordinal] == 0) {
+            lowBaseline[ordinal] = meanBefore;
+        }
+        if (lowBaseline[ordinal] > 0 && count < lowBaseline[ordinal] * DECAY_FRACTION) {
+            lowRun[ordinal]++;
+            if (lowRun[ordinal] >= DECAY_CYCLES && slope[ordinal] < 0) {
+                if (decayingStops == decayingOrdinals.length) {
+                    decayingOrdinals = Arrays.copyOf(decayingOrdinals, decayingStops * 2);
+                }
+                decayingOrdinals[decayingStops++] = ordinal;
+            }
+        } else {
+            lowRun[ordinal] = 0;
+        }
+
+        double difference = count - meanBefore;
+        double increment = ALPHA * difference;
+        mean[ordinal] = meanBefore + increment;
+        variance[ordinal] = (1 - ALPHA) * (variance[ordinal] + difference * increment);
+        samples[ordinal]++;
+    }
+
+    /**
+     * Stops reported in the last update whose count surged above their recent level.
+     */
+    public int getSurgingStops() {
+        return surgingStops;
+    }
+
+    /**
+     * Stops reported in the last update whose count has stayed under half their earlier level
+     * and is not recovering.
+     */
+    public int getDecayingStops() {
+        return decayingStops;
+    }
+
+    /**
+     * Stop ordinal of the index-th surging stop of the last update (index below getSurgingStops()).
+     */
+    public int getSurgingOrdinal(int index) {
+        return surgingOrdinals[index];
+    }
+
+    /**
+     * Stop ordinal of the index-th decaying stop of the last update (index below getDecayingStops()).
+     */
+    public int getDecayingOrdinal(int index) {
+        return decayingOrdinals[index];
+    }
+
+    /**
+     * Smoothed count at a stop (0 if it has never been reported).
+     */
+    public double getMean(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        return ordinal < 0 || ordinal >= samples.length ? 0 : mean[ordinal];
+    }
+
+    public double getStandardDeviation(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        return ordinal < 0 || ordinal >= samples.length ? 0 : Math.sqrt(variance[ordinal]);
+    }
+
+    /**
+     * Smoothed change in a stop's count per cycle; negative while it empties.
+     */
+    public double getSlope(int stopId) {
+        int ordinal = ordinals.ordinalOf(stopId);
+        return ordinal < 0 || ordinal >= samples.length ? 0 : slope[ordinal];
+    }
+
+    /**
+     * Write every known stop's trend, by stop id (see StateStore).
+     */
+    void write(DataOutputStream out) throws IOException {
+        int known = 0;
+        for (int ordinal = 0; ordinal < samples.length; ordinal++) {
+            if (samples[ordinal] > 0) {
+                known++;
+            }
+        }
+        out.writeInt(known);
+        for (int ordinal = 0; ordinal < samples.length; ordinal++) {
+            if (samples[ordinal] > 0) {
+                out.writeInt(ordinals.stopIdOf(ordinal));
+                out.writeInt(samples[ordinal]);
+                out.writeInt(last[ordinal]);
+                out.writeDouble(mean[ordinal]);
+                out.writeDouble(variance[ordinal]);
+                out.writeDouble(slope[ordinal]);
+                out.writeInt(lowRun[ordinal]);
+                out.writeDouble(lowBaseline[ordinal]);
+            }
+        }
+    }
+
+    /**
+     * Replace every trend with those written by write().
+     */
+    void read(ByteBuffer in) {
+        Arrays.fill(samples, 0);
+        Arrays.fill(lowRun, 0);
+        for (int i = in.getInt(); i > 0; i--) {
+            int ordinal = ordinals.register(in.getInt());
+            ensureCapacity(ordinal);
+            samples[ordinal] = in.getInt();
+            last[ordinal] = in.getInt();
+            mean[ordinal] = in.getDouble();
+            variance[ordinal] = in.getDouble();
+            slope[ordinal] = in.getDouble();
+            lowRun[ordinal] = in.getInt();
+            lowBaseline[ordinal] = in.getDouble();
+        }
+        surgingStops = 0;
+        decayingStops = 0;
+    }
+}
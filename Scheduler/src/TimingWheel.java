@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * Items (small non-negative ints, e.g. fleet slots) each due at a cycle, on a hierarchical
+ * timing wheel: six levels of 64 buckets. Level 0 holds the items due in the current block
+ * of 64 cycles, one bucket per cycle; level L holds items due later in the current block of
+ * 64^(L+1) cycles, one bucket per block of 64^L. When the wheel reaches the start of a
+ * level-L block, that block's bucket is filed again one level down.
+ *
+ * Scheduling and cancelling are O(1). Advancing costs the items that fall due, plus
+ * re-filing the items of one bucket per level whose block starts, so a cycle in which
+ * nothing is due costs next to nothing however many items are waiting.
+ */
+final class TimingWheel {
+    private static final int BITS = 6;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 6; // 36 bits, enough for any int cycle
+
+    private final int[] heads = new int[LEVELS * SIZE]; // First item in each bucket, -1 if empty
+    private final int[] tails = new int[LEVELS * SIZE]; // Last item in each bucket
+    // Per item: doubly linked bucket list, bucket (-1 if not scheduled) and due cycle
+    private int[] next;
+    private int[] previous;
+    private int[] bucket;
+    private int[] due;
+    private int current; // Next cycle to be collected
+    private int[] collected = new int[64];
+
+    TimingWheel(int startCycle) {
+        int length = 64;
+        this.next = new int[length];
+        this.previous = new int[length];
+        this.bucket = new int[length];
+        this.due = new int[length];
+        Arrays.fill(bucket, -1);
+        Arrays.fill(heads, -1);
+        this.current = startCycle;
+    }
+
+    /**
+     * Drop every item and continue from startCycle.
+     */
+    void reset(int startCycle) {
+        Arrays.fill(heads, -1);
+        Arrays.fill(bucket, -1);
+        current = startCycle;
+    }
+
+    /**
+     * Schedule an item at a cycle, replacing any earlier schedule for it. A cycle already
+     * collected counts as the next one.
+     */
+    void schedule(int item, int cycle) {
+        if (item >= bucket.length) {
+            int length = Math.max(item + 1, bucket.length * 2);
+            next = Arrays.copyOf(next, length);
+            previous = Arrays.copyOf(previous, length);
+            due = Arrays.copyOf(due, length);
+            int oldLength = bucket.length;
+            bucket = Arrays.copyOf(bucket, length);
+            Arrays.fill(bucket, oldLength, length, -1);
+        }
+        cancel(item);
+        due[item] = Math.max(cycle, current);
+        file(item);
+    }
+
+    void cancel(int item) {
+        if (item >= bucket.length || bucket[item] < 0) {
+            return;
+        }
+        if (previous[item] < 0) {
+            heads[bucket[item]] = next[item];
+        } else {
+            next[previous[item]] = next[item];
+        }
+        if (next[item] < 0) {
+            tails[bucket[item]] = previous[item];
+        } else {
+            previous[next[item]] = previous[item];
+        }
+        bucket[item] = -1;
+    }
+
+    boolean isScheduled(int item) {
+        return item < bucket.length && bucket[item] >= 0;
+    }
+
+    /**
+     * Collect every item due at or before cycle, in the order they fell due. Collected items
+     * are no longer scheduled.
+     */
+    int[] advanceTo(int cycle) {
+        int count = 0;
+        for (; current <= cycle; current++) {
+            int tick = current;
+            // Re-file the buckets whose block starts now, top level first, since their items
+            // may land in a lower bucket that also starts now
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1 << (BITS * level)) - 1)) == 0) {
+                    refile(level * SIZE + ((tick >>> (BITS * level)) & MASK));
+                }
+            }
+            int b = tick & MASK;
+            for (int item = heads[b]; item >= 0; item = next[item]) {
+                if (count == collected.length) {
+                    collected = Arrays.copyOf(collected, count * 2);
+                }
+                collected[count++] = item;
+                bucket[item] = -1;
+            }
+            heads[b] = -1;
+        }
+        return Arrays.copyOf(collected, count);
+    }
+
+    private void refile(int b) {
+        int item = heads[b];
+        heads[b] = -1;
+        while (item >= 0) {
+            int following = next[item];
+            file(item);
+            item = following;
+        }
+    }
+
+    // Level: the lowest whose block (of 64^(level+1) cycles) holds both the due cycle and current
+    private void file(int item) {
+        int cycle = due[item];
+        int level = 0;
+        while (level < LEVELS - 1 && (cycle >>> (BITS * (level + 1))) != (current >>> (BITS * (level + 1)))) {
+            level++;
+        }
+        int b = level * SIZE + ((cycle >>> (BITS * level)) & MASK);
+        // Append, so items due at the same cycle come out in the order they were scheduled
+        next[item] = -1;
+        bucket[item] = b;
+        if (heads[b] < 0) {
+            heads[b] = item;
+            previous[item] = -1;
+        } else {
+            next[tails[b]] = item;
+            previous[item] = tails[b];
+        }
+        tails[b] = item;
+    }
+}
@@ -1,91 +1,152 @@
-import java.util.List;
-
+/**
+ * A vehicle's fields live in a slot of a FleetStore; this object is a view onto that slot.
+ * It starts out in a one-slot store of its own and moves into the scheduler's store when
+ * added to the fleet (and out again when retired), keeping its identity throughout.
+ */
 public class Vehicle {
-    private String id;
-    private Route route;
-    private int capacity;
-    private Stop currentStop;
-    private VehicleState state;
-    private int passengerCount;
-    private int passengersWhenPresent; // Track passenger count when vehicle is present at stop (end of cycle 1)
+    private final String id;
+    private FleetStore store; // Holds this vehicle's fields at slot
+    private int slot;
+    int heapSlot = -1; // Position in the scheduler's HeadroomQueue, -1 if not queued
 
     public Vehicle(String id, Route route, int capacity, Stop currentStop) {
+        int stopIndex = 0;
+        if (currentStop != null) {
+            stopIndex = route.indexOf(currentStop);
+            if (stopIndex < 0) {
+                throw new IllegalArgumentException("Stop " + currentStop.getName() +
+                                                   " is not on route " + route.getRouteName());
+            }
+        }
         this.id = id;
-        this.route = route;
-        this.capacity = capacity;
-        if (currentStop == null) {
-            this.currentStop = route.getStops().get(0);
-        } else {
-            this.currentStop = currentStop;
+        this.store = new FleetStore(1);
+        this.slot = store.allocate(route, this);
+        store.capacity[slot] = capacity;
+        store.stopIndex[slot] = stopIndex;
+        store.setState(slot, VehicleState.PRESENT); // Start as PRESENT at initial stop
+    }
+
+    /**
+     * Recreate a vehicle exactly as it was saved in a state snapshot.
+     */
+    Vehicle(String id, Route route, int capacity, int stopIndex, VehicleState state,
+            int passengerCount, int passengersWhenPresent) {
+        if (stopIndex < 0 || stopIndex >= route.size()) {
+            throw new IllegalArgumentException("Stop position " + stopIndex + " is not on route " + route.getRouteName());
         }
-        this.state = VehicleState.PRESENT; // Start as PRESENT at initial stop
-        this.passengerCount = 0;
-        this.passengersWhenPresent = 0;
+        this.id = id;
+        this.store = new FleetStore(1);
+        this.slot = store.allocate(route, this);
+        store.capacity[slot] = capacity;
+        store.stopIndex[slot] = stopIndex;
+        store.setState(slot, state);
+        store.passengerCount[slot] = passengerCount;
+        store.passengersWhenPresent[slot] = passengersWhenPresent;
+    }
+
+    FleetStore getStore() {
+        return store;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void moveTo(FleetStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
     }
 
     public Stop getCurrentStop() {
-        return currentStop;
+        return getRoute().getStop(store.stopIndex[slot]);
     }
 
-    public void moveToNextStop() {
-        if (route == null || route.getStops().isEmpty()) {
-            return;
-        }
+    public int getStopIndex() {
+        return store.stopIndex[slot];
+    }
 
-        List<Stop> stops = route.getStops();
-        int currentIndex = stops.indexOf(currentStop);
+    public boolean isAtLastStop() {
+        return getRoute().isLastStop(store.stopIndex[slot]);
+    }
 
-        // Move to the next stop (no wrapping around)
-        if (currentIndex >= 0 && currentIndex < stops.size() - 1) {
-            currentIndex = currentIndex + 1;
-            currentStop = stops.get(currentIndex);
-            this.state = VehicleState.ARRIVING;
-            this.passengersWhenPresent = 0; // Reset for new stop
-        }
+    public void moveToNextStop() {
+        store.moveToNextStop(slot);
+        store.vehicleChanged(slot);
     }
 
     public void markAsPresent() {
-        this.state = VehicleState.PRESENT;
+        store.setState(slot, VehicleState.PRESENT);
+        store.vehicleChanged(slot);
     }
-    
+
     public void markAsDeparting() {
-        this.state = VehicleState.DEPARTING;
+        store.setState(slot, VehicleState.DEPARTING);
+        store.vehicleChanged(slot);
     }
-    
+
     public int getPassengersWhenPresent() {
-        return passengersWhenPresent;
+        return store.passengersWhenPresent[slot];
     }
-    
+
     public void setPassengersWhenPresent(int count) {
-        this.passengersWhenPresent = count;
+        store.passengersWhenPresent[slot] = count;
     }
 
     public VehicleState getState() {
-        return state;
+        return store.stateOf(slot);
     }
 
     public int getPassengerCount() {
-        return passengerCount;
+        return store.passengerCount[slot];
     }
 
     public void setPassengerCount(int passengerCount) {
-        this.passengerCount = passengerCount;
+        store.passengerCount[slot] = passengerCount;
+        store.vehicleChanged(slot);
     }
 
     public void pickUpPassengers(int count) {
-        this.passengerCount += count;
+        store.passengerCount[slot] += count;
+        store.vehicleChanged(slot);
+    }
+
+    /**
+     * Cycles the vehicle stays PRESENT at a stop before departing (1 by default).
+     */
+    public int getDwellCycles() {
+        return store.dwellCycles[slot];
+    }
+
+    public void setDwellCycles(int cycles) {
+        if (cycles < 1) {
+            throw new IllegalArgumentException("Dwell must be at least one cycle: " + cycles);
+        }
+        store.dwellCycles[slot] = cycles;
+    }
+
+    /**
+     * Cycles the vehicle spends DEPARTING before it arrives at the next stop (1 by default).
+     */
+    public int getTravelCycles() {
+        return store.travelCycles[slot];
+    }
+
+    public void setTravelCycles(int cycles) {
+        if (cycles < 1) {
+            throw new IllegalArgumentException("Travel must take at least one cycle: " + cycles);
+        }
+        store.travelCycles[slot] = cycles;
     }
 
     public int getCapacity() {
-        return capacity;
+        return store.capacity[slot];
     }
 
     public Route getRoute() {
-        return route;
+        return store.routeOf(slot);
     }
 
     public String getId() {
         return id;
     }
 }
-
@@ -0,0 +1,15 @@
+// What a vehicle in the fleet does next, and the state it has to be in to do it.
+// Each active vehicle has exactly one next event, scheduled on the scheduler's timing wheel.
+enum VehicleEvent {
+    INITIALIZE(VehicleState.PRESENT), // Take the stop's count if it has none yet (joined the fleet at a stop)
+    OBSERVE(VehicleState.PRESENT),    // Take the stop's count, just before departing
+    DEPART(VehicleState.PRESENT),     // PRESENT -> DEPARTING, picking up passengers
+    ARRIVE(VehicleState.DEPARTING),   // DEPARTING -> ARRIVING at the next stop, or leave the fleet after the last
+    DOCK(VehicleState.ARRIVING);      // ARRIVING -> PRESENT
+
+    final VehicleState state;
+
+    VehicleEvent(VehicleState state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Told when a vehicle in a fleet is moved, changes state or changes its passenger count
+ * from outside the scheduler's own cycle, so per-route state that depends on its vehicles
+ * can be updated for that vehicle's route only.
+ */
+public interface VehicleListener {
+    void vehicleChanged(Vehicle vehicle);
+}
@@ -1,3 +1,4 @@
+// Declared in the order a vehicle goes through them at a stop (RouteVehicleIndex relies on this)
 public enum VehicleState {
     ARRIVING,   // Vehicle is in transit to the current stop
     PRESENT,    // Vehicle has arrived and is present at the stop